@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+/**
+ * Builds seeded benchmark inputs.
+ */
+final class BenchmarkPuzzles {
+	private static final double UNCONSTRAINED_FRACTION = 0.1;
+	private BenchmarkPuzzles() {}
+
+	/**
+	 * Returns count puzzles (count must be a power of two, so benchmarks can
+	 * cycle through them with a mask).
+	 */
+	static Puzzle[] make(int sideLength, int colors, boolean solvable, int count) {
+		assert Integer.bitCount(count) == 1 : count;
+		return PuzzleGenerator.builder()
+				.seed(sideLength * 31 + colors * 2 + (solvable ? 1 : 0))
+				.sideLengths(sideLength, sideLength)
+				.colors(colors, colors)
+				.unconstrainedFraction(UNCONSTRAINED_FRACTION)
+				.unsolvableFraction(solvable ? 0 : 1)
+				.build()
+				.stream()
+				.limit(count)
+				.toArray(Puzzle[]::new);
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks classifying sampled cell colors against a palette, and reading
+ * whole boards from screenshots.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassificationBenchmark {
+	@Param({"2", "3", "4", "5", "6"})
+	public int colors;
+	private int[] palette;
+	private PaletteClassifier classifier;
+	private int[] samples;
+	private int next;
+	/**
+	 * A synthetic screenshot of a 6x6 board.
+	 */
+	private BufferedImage screenshot;
+	private BoardGeometry geometry;
+
+	@Setup
+	public void setup() {
+		Random rng = new Random(colors);
+		palette = new int[colors];
+		//evenly-spaced hues, like Strata's palettes
+		for (int i = 0; i < colors; ++i)
+			palette[i] = Color.HSBtoRGB((float)i / colors, 0.7f, 0.8f) & 0xFFFFFF;
+		classifier = Effector.classifier(palette);
+		samples = new int[1024];
+		for (int i = 0; i < samples.length; ++i)
+			samples[i] = rng.nextInt(1 << 24);
+		//Robot screenshots are int RGB.  Reading costs the same whatever the
+		//cells' colors, so one color everywhere does as well as a real board.
+		screenshot = new BufferedImage(1024, 768, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < screenshot.getHeight(); ++y)
+			for (int x = 0; x < screenshot.getWidth(); ++x)
+				screenshot.setRGB(x, y, palette[0]);
+		//the 6x6 board in the 1024x768 window
+		int[][] colorSelectors = new int[colors][];
+		for (int i = 0; i < colors; ++i)
+			colorSelectors[i] = new int[]{330 + 73 * i, 740};
+		geometry = new BoardGeometry(6, 512, 327, 30.4, colorSelectors, new int[]{510, 622});
+	}
+
+	@Benchmark
+	public byte indexOfClosestColor() {
+		int sample = samples[next];
+		next = (next + 1) & (samples.length - 1);
+		return indexOfClosestColor(sample, palette);
+	}
+
+	/**
+	 * The classifier PaletteClassifier replaced: returns the index of the
+	 * color in haystack with the smallest perceptual difference from needle,
+	 * or -1 if the background color is closer to needle.
+	 */
+	private static byte indexOfClosestColor(int needle, int[] haystack) {
+		byte bestIdx = 0;
+		double bestDiff = PaletteClassifier.perceptualDifference(needle, haystack[0]);
+		for (byte i = 1; i < haystack.length; ++i) {
+			double d = PaletteClassifier.perceptualDifference(needle, haystack[i]);
+			if (d < bestDiff) {
+				bestIdx = i;
+				bestDiff = d;
+			}
+		}
+		if (PaletteClassifier.perceptualDifference(needle, Effector.BACKGROUND_COLOR) < bestDiff)
+			return -1;
+		return bestIdx;
+	}
+
+	@Benchmark
+	public byte classify() {
+		int sample = samples[next];
+		next = (next + 1) & (samples.length - 1);
+		return classifier.classify(sample);
+	}
+
+	@Benchmark
+	public PaletteClassifier buildClassifier() {
+		return Effector.classifier(palette);
+	}
+
+	@Benchmark
+	public Puzzle readPuzzle() {
+		return Effector.readPuzzle(screenshot, geometry, classifier);
+	}
+}
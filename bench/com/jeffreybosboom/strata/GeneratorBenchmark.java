@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks generating random puzzles.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneratorBenchmark {
+	@Param({"6", "64", "1024"})
+	public int sideLength;
+	@Param({"0", "0.5"})
+	public double unsolvableFraction;
+	private PuzzleGenerator generator;
+	private long next;
+
+	@Setup
+	public void setup() {
+		generator = PuzzleGenerator.builder()
+				.sideLengths(sideLength, sideLength)
+				.colors(2, 6)
+				.unconstrainedFraction(0.1)
+				.unsolvableFraction(unsolvableFraction)
+				.build();
+	}
+
+	@Benchmark
+	public Puzzle generate() {
+		return generator.generate(next++);
+	}
+}
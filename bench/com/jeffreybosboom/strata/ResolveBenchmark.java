@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares re-solving a puzzle after a one-cell edit against solving the
+ * edited puzzle from scratch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolveBenchmark {
+	private static final int COUNT = 64;
+	@Param({"6", "32", "128"})
+	public int sideLength;
+	@Param({"4"})
+	public int colors;
+	private Puzzle[] puzzles, edited;
+	private Solution[] solutions;
+	private List<List<CellEdit>> edits;
+	private final Solver solver = new Solver();
+	private int next;
+
+	@Setup
+	public void setup() {
+		puzzles = BenchmarkPuzzles.make(sideLength, colors, true, COUNT);
+		edited = new Puzzle[COUNT];
+		solutions = new Solution[COUNT];
+		edits = new ArrayList<>(COUNT);
+		Random rng = new Random(sideLength);
+		for (int i = 0; i < COUNT; ++i) {
+			solutions[i] = new Solver().solve(puzzles[i]).get();
+			List<CellEdit> edit = Collections.singletonList(CellEdit.of(
+					rng.nextInt(sideLength), rng.nextInt(sideLength), rng.nextInt(colors)));
+			edits.add(edit);
+			edited[i] = puzzles[i].edit(edit);
+		}
+	}
+
+	private int next() {
+		int i = next;
+		next = (next + 1) & (COUNT - 1);
+		return i;
+	}
+
+	@Benchmark
+	public Optional<Solution> resolve() {
+		int i = next();
+		return solver.resolve(puzzles[i], solutions[i], edits.get(i));
+	}
+
+	@Benchmark
+	public Optional<Solution> solve() {
+		return new Solver().solve(edited[next()]);
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks building, completing and verifying Solutions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SolutionBenchmark {
+	@Param({"3", "6", "64", "512"})
+	public int sideLength;
+	private Puzzle puzzle;
+	/**
+	 * A solution containing every other row and column.
+	 */
+	private Solution partial;
+	/**
+	 * A correct solution to the puzzle.
+	 */
+	private Solution solution;
+	private final SolutionVerifier verifier = new SolutionVerifier();
+
+	@Setup
+	public void setup() {
+		puzzle = BenchmarkPuzzles.make(sideLength, 4, true, 1)[0];
+		SolutionBuilder builder = SolutionBuilder.forPuzzle(puzzle);
+		for (int i = 0; i < sideLength; i += 2)
+			builder.addRow(i, (byte)0).addCol(i, (byte)1);
+		partial = builder.build();
+		solution = new Solver().solve(puzzle).get();
+	}
+
+	/**
+	 * Builds a full solution the way the recursive solver used to, appending
+	 * ribbons to solutions of ever-larger subproblems.
+	 */
+	@Benchmark
+	public Solution appendRowCol() {
+		Solution solution = Solution.empty();
+		for (int i = 0; i < sideLength; ++i)
+			solution = solution.appendRow(0, (byte)0).appendCol(0, (byte)1);
+		return solution;
+	}
+
+	@Benchmark
+	public Solution builder() {
+		SolutionBuilder builder = SolutionBuilder.forPuzzle(puzzle);
+		for (int i = 0; i < sideLength; ++i)
+			builder.addRow(i, (byte)0).addCol(i, (byte)1);
+		return builder.build();
+	}
+
+	@Benchmark
+	public Solution complete() {
+		return partial.complete(puzzle);
+	}
+
+	@Benchmark
+	public boolean verify() {
+		return verifier.isCorrect(puzzle, solution);
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the scalar and vector {@link UniformityKernel}s testing every row
+ * and (transposed) column of a solvable board.  Requires JDK 16+ and the
+ * compile-vector target; the forked JVM enables the vector module.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class UniformityBenchmark {
+	@Param({"6", "32", "128", "1024"})
+	public int sideLength;
+	@Param({"scalar", "vector"})
+	public String kernelName;
+	private UniformityKernel kernel;
+	private byte[] rows, cols, uniform;
+
+	@Setup
+	public void setup() {
+		kernel = kernelName.equals("scalar") ? UniformityKernel.scalar() : UniformityKernel.get();
+		if (kernel == UniformityKernel.scalar() && !kernelName.equals("scalar"))
+			throw new IllegalStateException("vector kernel unavailable");
+		Puzzle puzzle = BenchmarkPuzzles.make(sideLength, 4, true, 1)[0];
+		rows = puzzle.toRowMajor();
+		cols = puzzle.transpose().toRowMajor();
+		uniform = new byte[sideLength];
+		for (int i = 0; i < sideLength; ++i)
+			uniform[i] = (byte)(i % 10 == 3 ? -1 : 2);
+	}
+
+	@Benchmark
+	public int allLines() {
+		int uniform = 0;
+		for (int line = 0; line < sideLength; ++line) {
+			if (kernel.color(rows, line * sideLength, sideLength) != UniformityKernel.MIXED)
+				++uniform;
+			if (kernel.color(cols, line * sideLength, sideLength) != UniformityKernel.MIXED)
+				++uniform;
+		}
+		return uniform;
+	}
+
+	/**
+	 * A uniform line, which must be scanned to its end.
+	 */
+	@Benchmark
+	public int uniformLine() {
+		return kernel.color(uniform, 0, sideLength);
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link UniformityKernel} using the incubating Vector API, comparing a full
+ * SIMD register of cells at a time.  Loaded reflectively by
+ * UniformityKernel, so the rest of stratabot still builds and runs on JDK 8.
+ */
+final class VectorUniformityKernel extends UniformityKernel {
+	private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+	private static final byte UNCONSTRAINED = -1;
+	VectorUniformityKernel() {}
+
+	@Override
+	int color(byte[] lines, int from, int length) {
+		int end = from + length, bound = from + SPECIES.loopBound(length), i = from;
+		byte color = UNCONSTRAINED;
+		//find the first constrained cell
+		for (; i < bound; i += SPECIES.length()) {
+			VectorMask<Byte> constrained = ByteVector.fromArray(SPECIES, lines, i)
+					.compare(VectorOperators.NE, UNCONSTRAINED);
+			if (constrained.anyTrue()) {
+				color = lines[i + constrained.firstTrue()];
+				break;
+			}
+		}
+		if (color == UNCONSTRAINED) {
+			for (; i < end && lines[i] == UNCONSTRAINED; ++i);
+			if (i == end) return UNCONSTRAINED;
+			color = lines[i];
+		}
+
+		//check the rest, starting with the vector holding that cell
+		for (; i < bound; i += SPECIES.length()) {
+			ByteVector v = ByteVector.fromArray(SPECIES, lines, i);
+			if (v.compare(VectorOperators.NE, color).and(v.compare(VectorOperators.NE, UNCONSTRAINED)).anyTrue())
+				return MIXED;
+		}
+		for (; i < end; ++i)
+			if (lines[i] != color & lines[i] != UNCONSTRAINED)
+				return MIXED;
+		return color;
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+import static com.google.common.util.concurrent.Uninterruptibles.takeUninterruptibly;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Solves batches of puzzles on a pool of worker threads, each with its own
+ * solver.  Puzzles are pulled from the input only as workers free up, so at
+ * most a fixed number of chunks of puzzles are in flight at once and huge
+ * inputs are never buffered.  Results are delivered on the calling thread,
+ * either in input order or in completion order.
+ *
+ * BatchSolver is not thread-safe: only one batch may run at a time.  Close it
+ * to stop its threads.
+ */
+public final class BatchSolver implements AutoCloseable {
+	/**
+	 * A solved (or unsolvable) puzzle from a batch.
+	 */
+	public static final class Result {
+		private final long index;
+		private final Puzzle puzzle;
+		private final Optional<Solution> solution;
+		private Result(long index, Puzzle puzzle, Optional<Solution> solution) {
+			this.index = index;
+			this.puzzle = puzzle;
+			this.solution = solution;
+		}
+
+		/**
+		 * Returns this puzzle's zero-based position in the input.
+		 * @return this puzzle's position in the input
+		 */
+		public long index() {
+			return index;
+		}
+
+		public Puzzle puzzle() {
+			return puzzle;
+		}
+
+		public Optional<Solution> solution() {
+			return solution;
+		}
+
+		@Override
+		public String toString() {
+			return index + ": " + solution.map(Solution::toString).orElse("no solution");
+		}
+	}
+
+	private static final int DEFAULT_CHUNK_SIZE = 64;
+	private final ExecutorService executor;
+	private final ThreadLocal<Function<Puzzle, Optional<Solution>>> solvers;
+	private final int maxInFlight, chunkSize;
+	/**
+	 * Creates a BatchSolver using a {@link Solver} on each available
+	 * processor.
+	 */
+	public BatchSolver() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public BatchSolver(int threads) {
+		this(threads, 4 * threads, DEFAULT_CHUNK_SIZE, () -> new Solver()::solve);
+	}
+
+	/**
+	 * Creates a BatchSolver.
+	 * @param threads the number of worker threads
+	 * @param maxInFlight the maximum number of chunks submitted but not yet
+	 * delivered
+	 * @param chunkSize the number of puzzles each worker solves per task, to
+	 * amortize task overhead over small puzzles
+	 * @param solverFactory creates the solver for each worker thread
+	 */
+	public BatchSolver(int threads, int maxInFlight, int chunkSize, Supplier<Function<Puzzle, Optional<Solution>>> solverFactory) {
+		checkArgument(threads > 0, "threads: %s", threads);
+		checkArgument(maxInFlight >= threads, "maxInFlight %s < threads %s", maxInFlight, threads);
+		checkArgument(chunkSize > 0, "chunkSize: %s", chunkSize);
+		this.executor = Executors.newFixedThreadPool(threads,
+				new ThreadFactoryBuilder().setNameFormat("stratabot-solver-%d").setDaemon(true).build());
+		this.solvers = ThreadLocal.withInitial(solverFactory);
+		this.maxInFlight = maxInFlight;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Solves the given puzzles, passing results to the given sink in input
+	 * order.
+	 * @param puzzles the puzzles to solve
+	 * @param sink receives the results, on the calling thread
+	 */
+	public void solveOrdered(Iterator<Puzzle> puzzles, Consumer<? super Result> sink) {
+		ArrayDeque<Future<Result[]>> window = new ArrayDeque<>(maxInFlight);
+		long index = 0;
+		while (puzzles.hasNext() || !window.isEmpty()) {
+			while (window.size() < maxInFlight && puzzles.hasNext()) {
+				List<Puzzle> chunk = nextChunk(puzzles);
+				window.addLast(executor.submit(task(index, chunk)));
+				index += chunk.size();
+			}
+			deliver(get(window.removeFirst()), sink);
+		}
+	}
+
+	public void solveOrdered(Stream<Puzzle> puzzles, Consumer<? super Result> sink) {
+		solveOrdered(puzzles.iterator(), sink);
+	}
+
+	/**
+	 * Solves the given puzzles, passing results to the given sink as they
+	 * complete.  Results within a chunk are delivered together in input order.
+	 * @param puzzles the puzzles to solve
+	 * @param sink receives the results, on the calling thread
+	 */
+	public void solveUnordered(Iterator<Puzzle> puzzles, Consumer<? super Result> sink) {
+		BlockingQueue<Future<Result[]>> completed = new LinkedBlockingQueue<>();
+		CompletionService<Result[]> service = new ExecutorCompletionService<>(executor, completed);
+		int inFlight = 0;
+		long index = 0;
+		while (puzzles.hasNext() || inFlight > 0) {
+			for (; inFlight < maxInFlight && puzzles.hasNext(); ++inFlight) {
+				List<Puzzle> chunk = nextChunk(puzzles);
+				service.submit(task(index, chunk));
+				index += chunk.size();
+			}
+			deliver(get(takeUninterruptibly(completed)), sink);
+			--inFlight;
+		}
+	}
+
+	public void solveUnordered(Stream<Puzzle> puzzles, Consumer<? super Result> sink) {
+		solveUnordered(puzzles.iterator(), sink);
+	}
+
+	/**
+	 * Solves the given puzzles, returning their solutions in input order.
+	 * @param puzzles the puzzles to solve
+	 * @return the solutions, in input order
+	 */
+	public List<Optional<Solution>> solveAll(List<Puzzle> puzzles) {
+		List<Optional<Solution>> solutions = new ArrayList<>(puzzles.size());
+		solveOrdered(puzzles.iterator(), r -> solutions.add(r.solution()));
+		return solutions;
+	}
+
+	private List<Puzzle> nextChunk(Iterator<Puzzle> puzzles) {
+		List<Puzzle> chunk = new ArrayList<>(chunkSize);
+		while (chunk.size() < chunkSize && puzzles.hasNext())
+			chunk.add(puzzles.next());
+		return chunk;
+	}
+
+	private Callable<Result[]> task(long firstIndex, List<Puzzle> chunk) {
+		return () -> {
+			Function<Puzzle, Optional<Solution>> solver = solvers.get();
+			Result[] results = new Result[chunk.size()];
+			for (int i = 0; i < results.length; ++i)
+				results[i] = new Result(firstIndex + i, chunk.get(i), solver.apply(chunk.get(i)));
+			return results;
+		};
+	}
+
+	private static Result[] get(Future<Result[]> future) {
+		try {
+			return getUninterruptibly(future);
+		} catch (ExecutionException ex) {
+			throw new UncheckedExecutionException(ex.getCause());
+		}
+	}
+
+	private static void deliver(Result[] results, Consumer<? super Result> sink) {
+		for (Result r : results)
+			sink.accept(r);
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The positions of a puzzle board's cells and ribbon selectors, the color
+ * selectors and the next button, in window coordinates.
+ *
+ * The board is a diamond of square cells rotated 45 degrees, so it is
+ * determined by its center and the step between adjacent cells: moving down
+ * a column (to the next row) moves (step, step), and moving along a row (to
+ * the next column) moves (step, -step).  Equivalently, given the centers of
+ * the leftmost cell L = (0, 0), the bottom cell B = (n-1, 0) and the
+ * rightmost cell R = (n-1, n-1), the cell at (r, c) is at
+ * B + (1 - r/(n-1))(L - B) + (c/(n-1))(R - B).  The ribbon selectors lie just
+ * outside the lower edges of the diamond, in line with their ribbons.
+ *
+ * Geometry is {@linkplain #calibrate calibrated} from a screenshot, so it
+ * works at any window size and side length, and can be
+ * {@linkplain #save saved} as a profile so later runs needn't recalibrate.
+ */
+public final class BoardGeometry {
+	/**
+	 * The distance, in steps, from the last cell of a ribbon to its selector,
+	 * fit to the hand-measured selectors of the 1024x768 window.
+	 */
+	private static final double SELECTOR_OFFSET = 1.17;
+	/**
+	 * The perceptual difference from the background above which a pixel is
+	 * part of the board or the color bar.
+	 */
+	private static final double FOREGROUND_DIFFERENCE = 30;
+	/**
+	 * The widest gap within a single color selector, in pixels, so
+	 * antialiasing or borders don't split it.
+	 */
+	private static final int MAX_SELECTOR_GAP = 3;
+	/**
+	 * The next button's position in the 1024x768 window, scaled to other window
+	 * sizes.  (It only appears once a puzzle is solved, so can't be calibrated
+	 * from a puzzle screen.)
+	 */
+	private static final double NEXT_BUTTON_X = 510.0 / 1024, NEXT_BUTTON_Y = 622.0 / 768;
+	private final int sideLength;
+	private final double centerX, centerY, step;
+	private final int[][] colorSelectors;
+	private final int[] nextButton;
+	/**
+	 * Creates a BoardGeometry.
+	 * @param sideLength the board's side length
+	 * @param centerX the x coordinate of the board's center
+	 * @param centerY the y coordinate of the board's center
+	 * @param step the horizontal (and vertical) distance between adjacent cells
+	 * @param colorSelectors the color selectors' positions, left to right
+	 * @param nextButton the next button's position
+	 */
+	public BoardGeometry(int sideLength, double centerX, double centerY, double step, int[][] colorSelectors, int[] nextButton) {
+		checkArgument(sideLength > 0, "sideLength: %s", sideLength);
+		checkArgument(step > 0, "step: %s", step);
+		checkArgument(colorSelectors.length >= 2, "%s color selectors", colorSelectors.length);
+		for (int[] xy : colorSelectors)
+			checkArgument(xy.length == 2, "bad point %s", xy.length);
+		checkArgument(nextButton.length == 2, "bad point %s", nextButton.length);
+		this.sideLength = sideLength;
+		this.centerX = centerX;
+		this.centerY = centerY;
+		this.step = step;
+		this.colorSelectors = new int[colorSelectors.length][];
+		for (int i = 0; i < colorSelectors.length; ++i)
+			this.colorSelectors[i] = colorSelectors[i].clone();
+		this.nextButton = nextButton.clone();
+	}
+
+	/**
+	 * Detects the geometry of a board with the given side length and number
+	 * of colors from the given screenshot of the Strata window's client area,
+	 * taken at a puzzle screen.
+	 *
+	 * The color bar is the lowest band of non-background pixels, split into
+	 * one selector per color.  The board is the diamond bounding the
+	 * non-background pixels above the color bar.  An unconstrained cell looks
+	 * like the background, so if a corner cell is unconstrained, that corner
+	 * of the diamond is found short; the board is found from whichever pair
+	 * of opposite corners is farther apart, so calibration survives blank
+	 * corners along one diagonal.
+	 * @param screenshot a screenshot
+	 * @param sideLength the board's side length
+	 * @param numColors the number of colors in the puzzle
+	 * @param background the window's background color, as 0xRRGGBB
+	 * @return the board's geometry
+	 * @throws IllegalArgumentException if the board or color bar can't be
+	 * found
+	 */
+	public static BoardGeometry calibrate(BufferedImage screenshot, int sideLength, int numColors, int background) {
+		checkArgument(sideLength > 0, "sideLength: %s", sideLength);
+		checkArgument(numColors >= 2, "numColors: %s", numColors);
+		CellSampler sampler = new CellSampler(screenshot);
+		int width = sampler.width(), height = sampler.height();
+		boolean[] foreground = new boolean[width * height];
+		int[] pixels = sampler.pixels(null);
+		for (int i = 0; i < foreground.length; ++i)
+			foreground[i] = PaletteClassifier.perceptualDifference(pixels[i] & 0xFFFFFF, background) > FOREGROUND_DIFFERENCE;
+
+		//the color bar is the lowest band of rows containing foreground
+		int barBottom = height - 1;
+		while (barBottom >= 0 && !anyInRow(foreground, width, barBottom))
+			--barBottom;
+		checkArgument(barBottom >= 0, "no color bar: screenshot is all background");
+		int barTop = barBottom;
+		while (barTop > 0 && anyInRow(foreground, width, barTop - 1))
+			--barTop;
+		int barY = (barTop + barBottom) / 2;
+		List<int[]> selectors = new ArrayList<>();
+		for (int x = 0; x < width; ) {
+			if (!foreground[barY * width + x]) {
+				++x;
+				continue;
+			}
+			int start = x, end = x;
+			for (; x < width && x - end <= MAX_SELECTOR_GAP; ++x)
+				if (foreground[barY * width + x])
+					end = x;
+			selectors.add(new int[]{(start + end) / 2, barY});
+		}
+		checkArgument(selectors.size() == numColors, "found %s color selectors, expected %s", selectors.size(), numColors);
+
+		//The board's diamond vertices are the extreme foreground pixels (or,
+		//for a blunt vertex, the middle of them).
+		int left = width, right = -1, top = height, bottom = -1;
+		long leftY = 0, rightY = 0, topX = 0, bottomX = 0;
+		int leftN = 0, rightN = 0, topN = 0, bottomN = 0;
+		for (int y = 0; y < barTop; ++y)
+			for (int x = 0; x < width; ++x) {
+				if (!foreground[y * width + x]) continue;
+				if (x < left) { left = x; leftY = leftN = 0; }
+				if (x == left) { leftY += y; ++leftN; }
+				if (x > right) { right = x; rightY = rightN = 0; }
+				if (x == right) { rightY += y; ++rightN; }
+				if (y < top) { top = y; topX = topN = 0; }
+				if (y == top) { topX += x; ++topN; }
+				if (y > bottom) { bottom = y; bottomX = bottomN = 0; }
+				if (y == bottom) { bottomX += x; ++bottomN; }
+			}
+		checkArgument(right >= 0, "no board above the color bar at y = %s", barTop);
+		//The diamond's vertices are half a step beyond the outermost cells'
+		//centers, so its half-diagonal is sideLength steps.
+		double halfWidth = (right - left + 1) / 2.0, halfHeight = (bottom - top + 1) / 2.0;
+		double centerX, centerY, halfDiagonal;
+		if (halfWidth >= halfHeight) {
+			halfDiagonal = halfWidth;
+			centerX = (left + right) / 2.0;
+			centerY = ((double)leftY / leftN + (double)rightY / rightN) / 2;
+		} else {
+			halfDiagonal = halfHeight;
+			centerX = ((double)topX / topN + (double)bottomX / bottomN) / 2;
+			centerY = (top + bottom) / 2.0;
+		}
+		int[] nextButton = {(int)Math.round(NEXT_BUTTON_X * width), (int)Math.round(NEXT_BUTTON_Y * height)};
+		return new BoardGeometry(sideLength, centerX, centerY, halfDiagonal / sideLength,
+				selectors.toArray(new int[0][]), nextButton);
+	}
+
+	private static boolean anyInRow(boolean[] foreground, int width, int y) {
+		for (int x = 0; x < width; ++x)
+			if (foreground[y * width + x])
+				return true;
+		return false;
+	}
+
+	/**
+	 * Loads a profile written by {@link #save(Path)}.
+	 * @param file the profile
+	 * @return the geometry
+	 * @throws IOException if the profile can't be read
+	 * @throws IllegalArgumentException if the profile is malformed
+	 */
+	public static BoardGeometry load(Path file) throws IOException {
+		Properties p = new Properties();
+		try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			p.load(r);
+		}
+		try {
+			String[] selectors = property(p, "colorSelectors").split(" ");
+			int[][] colorSelectors = new int[selectors.length][];
+			for (int i = 0; i < selectors.length; ++i)
+				colorSelectors[i] = parsePoint(selectors[i]);
+			return new BoardGeometry(Integer.parseInt(property(p, "sideLength")),
+					Double.parseDouble(property(p, "centerX")),
+					Double.parseDouble(property(p, "centerY")),
+					Double.parseDouble(property(p, "step")),
+					colorSelectors,
+					parsePoint(property(p, "nextButton")));
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("malformed profile " + file, ex);
+		}
+	}
+
+	private static String property(Properties p, String key) {
+		String value = p.getProperty(key);
+		checkArgument(value != null, "profile missing %s", key);
+		return value;
+	}
+
+	private static int[] parsePoint(String str) {
+		String[] xy = str.split(",");
+		checkArgument(xy.length == 2, "bad point %s", str);
+		return new int[]{Integer.parseInt(xy[0]), Integer.parseInt(xy[1])};
+	}
+
+	/**
+	 * Saves this geometry as a profile, readable by {@link #load(Path)}.
+	 * @param file the file to write
+	 * @throws IOException if the file can't be written
+	 */
+	public void save(Path file) throws IOException {
+		Properties p = new Properties();
+		p.setProperty("sideLength", Integer.toString(sideLength));
+		p.setProperty("centerX", Double.toString(centerX));
+		p.setProperty("centerY", Double.toString(centerY));
+		p.setProperty("step", Double.toString(step));
+		StringBuilder selectors = new StringBuilder();
+		for (int[] xy : colorSelectors) {
+			if (selectors.length() > 0) selectors.append(' ');
+			selectors.append(xy[0]).append(',').append(xy[1]);
+		}
+		p.setProperty("colorSelectors", selectors.toString());
+		p.setProperty("nextButton", nextButton[0] + "," + nextButton[1]);
+		if (file.getParent() != null)
+			Files.createDirectories(file.getParent());
+		try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			p.store(w, "stratabot board geometry");
+		}
+	}
+
+	public int sideLength() {
+		return sideLength;
+	}
+
+	public int colors() {
+		return colorSelectors.length;
+	}
+
+	/**
+	 * Returns the horizontal (and vertical) distance between adjacent cells.
+	 * @return the step between cells, in pixels
+	 */
+	public double step() {
+		return step;
+	}
+
+	/**
+	 * Returns the center of the cell at the given row and column.
+	 * @param row the row
+	 * @param col the column
+	 * @return the cell's center, as {x, y}
+	 */
+	public int[] cell(int row, int col) {
+		checkElementIndex(row, sideLength);
+		checkElementIndex(col, sideLength);
+		return point(row + col - (sideLength - 1), row - col);
+	}
+
+	public int[] rowSelector(int row) {
+		checkElementIndex(row, sideLength);
+		//beyond column 0, against the direction of increasing column
+		return point(row - (sideLength - 1) - SELECTOR_OFFSET, row + SELECTOR_OFFSET);
+	}
+
+	public int[] colSelector(int col) {
+		checkElementIndex(col, sideLength);
+		//beyond the last row, in the direction of increasing row
+		return point(col + SELECTOR_OFFSET, sideLength - 1 - col + SELECTOR_OFFSET);
+	}
+
+	public int[] colorSelector(int color) {
+		checkElementIndex(color, colorSelectors.length);
+		return colorSelectors[color].clone();
+	}
+
+	public int[] nextButton() {
+		return nextButton.clone();
+	}
+
+	/**
+	 * Returns the point the given number of steps right and down from the
+	 * board's center.
+	 */
+	private int[] point(double stepsRight, double stepsDown) {
+		return new int[]{(int)Math.round(centerX + stepsRight * step), (int)Math.round(centerY + stepsDown * step)};
+	}
+
+	/**
+	 * Returns the smallest rectangle containing the centers of all cells.
+	 * @return the cells' bounding box
+	 */
+	public Rectangle cellBounds() {
+		int[] left = cell(0, 0), top = cell(0, sideLength - 1), right = cell(sideLength - 1, sideLength - 1),
+				bottom = cell(sideLength - 1, 0);
+		return new Rectangle(left[0], top[1], right[0] - left[0] + 1, bottom[1] - top[1] + 1);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%dx%d board at (%.1f, %.1f), step %.2f, %d colors",
+				sideLength, sideLength, centerX, centerY, step, colorSelectors.length);
+	}
+}
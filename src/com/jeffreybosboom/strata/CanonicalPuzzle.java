@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+import java.util.Arrays;
+
+/**
+ * A puzzle relabeled into a canonical form under row permutation, column
+ * permutation and color relabeling, with the maps back to the original.
+ * Permuting ribbons or relabeling colors maps solutions to solutions, so
+ * equivalent boards can share one solution.
+ *
+ * Rows, columns and colors are ordered by invariants refined over a few
+ * rounds (each row's multiset of cell colors and crossing columns, and so
+ * on), hashed.  Equal canonical forms always mean equivalent puzzles, since
+ * the maps witness it.  The converse holds unless refinement leaves ties
+ * between lines that differ (as in highly symmetric boards), which are
+ * broken by original order, so such boards may get several canonical forms.
+ */
+final class CanonicalPuzzle {
+	private static final int ROUNDS = 3, TIE_PASSES = 3;
+	private static final long UNCONSTRAINED = 0x6A09E667F3BCC909L;
+	private final Puzzle puzzle;
+	/**
+	 * Canonical row i is original row rowOrder[i], and so on; canonical color
+	 * c is original color colorOrder[c].
+	 */
+	private final int[] rowOrder, colOrder;
+	private final byte[] colorOrder;
+	private final long hash;
+	private CanonicalPuzzle(Puzzle puzzle, int[] rowOrder, int[] colOrder, byte[] colorOrder, long hash) {
+		this.puzzle = puzzle;
+		this.rowOrder = rowOrder;
+		this.colOrder = colOrder;
+		this.colorOrder = colorOrder;
+		this.hash = hash;
+	}
+
+	public static CanonicalPuzzle of(Puzzle original) {
+		int rows = original.rows(), cols = original.cols();
+		byte[] cells = original.toRowMajor();
+		int maxColor = -1;
+		for (byte b : cells)
+			maxColor = Math.max(maxColor, b);
+		int[] count = new int[maxColor + 1];
+		for (byte b : cells)
+			if (b != -1)
+				++count[b];
+
+		long[] colorHash = new long[maxColor + 1];
+		for (int c = 0; c <= maxColor; ++c)
+			colorHash[c] = mix(count[c]);
+		long[] rowHash = new long[rows], colHash = new long[cols];
+		for (int round = 0; round < ROUNDS; ++round) {
+			long[] newRow = new long[rows], newCol = new long[cols], newColor = new long[maxColor + 1];
+			for (int row = 0, i = 0; row < rows; ++row)
+				for (int col = 0; col < cols; ++col, ++i) {
+					byte b = cells[i];
+					long cell = b == -1 ? UNCONSTRAINED : colorHash[b];
+					//sums of scrambled terms are order-independent multiset
+					//hashes, mixed once per line below
+					newRow[row] += scramble(cell, colHash[col]);
+					newCol[col] += scramble(cell, rowHash[row]);
+					if (b != -1)
+						newColor[b] += scramble(rowHash[row], colHash[col]);
+				}
+			for (int row = 0; row < rows; ++row)
+				rowHash[row] = mix(newRow[row]);
+			for (int col = 0; col < cols; ++col)
+				colHash[col] = mix(newCol[col]);
+			for (int c = 0; c <= maxColor; ++c)
+				colorHash[c] = pair(mix(count[c]), newColor[c]);
+		}
+
+		byte[] colorOrder = colorOrder(colorHash, count);
+		byte[] relabel = new byte[maxColor + 1];
+		for (int c = 0; c < colorOrder.length; ++c)
+			relabel[colorOrder[c]] = (byte)c;
+		int[] rowOrder = identity(rows), colOrder = identity(cols);
+		sort(rowOrder, (a, b) -> Long.compare(rowHash[a], rowHash[b]));
+		sort(colOrder, (a, b) -> Long.compare(colHash[a], colHash[b]));
+		//Refinement leaves ties between lines it can't tell apart, which may
+		//still differ; order them by their contents along the other
+		//dimension's order.
+		for (int pass = 0; pass < TIE_PASSES; ++pass) {
+			boolean changed = sort(rowOrder, (a, b) -> {
+				int c = Long.compare(rowHash[a], rowHash[b]);
+				for (int i = 0; c == 0 && i < cols; ++i)
+					c = Byte.compare(relabeled(cells, relabel, a * cols + colOrder[i]), relabeled(cells, relabel, b * cols + colOrder[i]));
+				return c;
+			});
+			changed |= sort(colOrder, (a, b) -> {
+				int c = Long.compare(colHash[a], colHash[b]);
+				for (int i = 0; c == 0 && i < rows; ++i)
+					c = Byte.compare(relabeled(cells, relabel, rowOrder[i] * cols + a), relabeled(cells, relabel, rowOrder[i] * cols + b));
+				return c;
+			});
+			if (!changed) break;
+		}
+
+		byte[] canonical = new byte[rows * cols];
+		long hash = 31 * rows + cols;
+		for (int row = 0, i = 0; row < rows; ++row)
+			for (int col = 0; col < cols; ++col, ++i) {
+				canonical[i] = relabeled(cells, relabel, rowOrder[row] * cols + colOrder[col]);
+				hash = hash * 31 + canonical[i];
+			}
+		return new CanonicalPuzzle(Puzzle.fromRowMajor(canonical, rows, cols), rowOrder, colOrder, colorOrder, mix(hash));
+	}
+
+	private static byte relabeled(byte[] cells, byte[] relabel, int index) {
+		byte b = cells[index];
+		return b == -1 ? -1 : relabel[b];
+	}
+
+	private static int[] identity(int n) {
+		int[] a = new int[n];
+		for (int i = 0; i < n; ++i)
+			a[i] = i;
+		return a;
+	}
+
+	/**
+	 * Compares two lines (or colors) by index.
+	 */
+	private interface IndexComparator {
+		int compare(int a, int b);
+	}
+
+	/**
+	 * Stably sorts the given indices, returning true if any moved.
+	 */
+	private static boolean sort(int[] order, IndexComparator comparator) {
+		Integer[] boxed = new Integer[order.length];
+		for (int i = 0; i < order.length; ++i)
+			boxed[i] = order[i];
+		Arrays.sort(boxed, comparator::compare);
+		boolean changed = false;
+		for (int i = 0; i < order.length; ++i) {
+			changed |= order[i] != boxed[i];
+			order[i] = boxed[i];
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns the colors present (count > 0) in order of hash, ties broken by
+	 * color.
+	 */
+	private static byte[] colorOrder(long[] hashes, int[] count) {
+		int[] order = identity(hashes.length);
+		sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+		byte[] colors = new byte[hashes.length];
+		int n = 0;
+		for (int c : order)
+			if (count[c] > 0)
+				colors[n++] = (byte)c;
+		return Arrays.copyOf(colors, n);
+	}
+
+	/**
+	 * The 64-bit finalizer of MurmurHash3.
+	 */
+	private static long mix(long x) {
+		x = (x ^ (x >>> 33)) * 0xFF51AFD7ED558CCDL;
+		x = (x ^ (x >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return x ^ (x >>> 33);
+	}
+
+	private static long pair(long a, long b) {
+		return mix(a * 0x9E3779B97F4A7C15L + b);
+	}
+
+	/**
+	 * A cheap, asymmetric combination of two hashes, for inner loops.
+	 */
+	private static long scramble(long a, long b) {
+		long x = (a ^ (b * 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L;
+		return x ^ (x >>> 31);
+	}
+
+	/**
+	 * Returns the canonical puzzle.
+	 * @return the canonical puzzle
+	 */
+	public Puzzle puzzle() {
+		return puzzle;
+	}
+
+	/**
+	 * Returns a hash of the canonical puzzle, equal for equal canonical
+	 * puzzles.
+	 * @return a hash of the canonical puzzle
+	 */
+	public long hash() {
+		return hash;
+	}
+
+	/**
+	 * Maps a solution of the canonical puzzle to the original puzzle.
+	 * @param solution a solution of the canonical puzzle
+	 * @return the corresponding solution of the original puzzle
+	 */
+	public Solution toOriginal(Solution solution) {
+		SolutionBuilder builder = new SolutionBuilder(rowOrder.length, colOrder.length, false);
+		for (int i = 0; i < solution.size(); ++i) {
+			byte c = solution.color(i);
+			//colors not in the puzzle only paint unconstrained cells
+			byte color = c < colorOrder.length ? colorOrder[c] : c;
+			if (solution.isRow(i))
+				builder.addRow(rowOrder[solution.ribbonIndex(i)], color);
+			else
+				builder.addCol(colOrder[solution.ribbonIndex(i)], color);
+		}
+		return builder.build();
+	}
+}
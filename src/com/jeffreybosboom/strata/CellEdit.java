@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A change to one cell of a puzzle: its row, column and new color (or -1 to
+ * make it unconstrained).
+ */
+public final class CellEdit {
+	private final int row, col;
+	private final byte color;
+	private CellEdit(int row, int col, byte color) {
+		this.row = row;
+		this.col = col;
+		this.color = color;
+	}
+
+	public static CellEdit of(int row, int col, int color) {
+		checkArgument(row >= 0 && col >= 0, "bad cell: (%s, %s)", row, col);
+		checkArgument(color >= -1 && color <= Byte.MAX_VALUE, "bad color: %s", color);
+		return new CellEdit(row, col, (byte)color);
+	}
+
+	public int row() {
+		return row;
+	}
+
+	public int col() {
+		return col;
+	}
+
+	public byte color() {
+		return color;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof CellEdit))
+			return false;
+		CellEdit other = (CellEdit)obj;
+		return row == other.row && col == other.col && color == other.color;
+	}
+
+	@Override
+	public int hashCode() {
+		return (row * 31 + col) * 31 + color;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("(%d, %d) = %d", row, col, color);
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Averages square neighborhoods of pixels straight from an image's int
+ * raster, with no per-pixel calls or allocation.  Screenshots from
+ * {@link java.awt.Robot} are already int RGB and are read in place; other
+ * images (like PNGs loaded by ImageIO) are converted once.
+ */
+public final class CellSampler {
+	private final int[] pixels;
+	private final int width, height, offset, stride;
+	public CellSampler(BufferedImage image) {
+		if (!isIntRGB(image)) {
+			BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = converted.createGraphics();
+			g.drawImage(image, 0, 0, null);
+			g.dispose();
+			image = converted;
+		}
+		Raster raster = image.getRaster();
+		SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel)raster.getSampleModel();
+		DataBufferInt buffer = (DataBufferInt)raster.getDataBuffer();
+		this.pixels = buffer.getData();
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+		this.stride = model.getScanlineStride();
+		//subimages share their parent's buffer, translated
+		this.offset = buffer.getOffset()
+				- raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+	}
+
+	private static boolean isIntRGB(BufferedImage image) {
+		int type = image.getType();
+		return (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+				&& image.getRaster().getDataBuffer() instanceof DataBufferInt
+				&& image.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel;
+	}
+
+	public int width() {
+		return width;
+	}
+
+	public int height() {
+		return height;
+	}
+
+	/**
+	 * Returns the pixel at the given coordinates as 0xRRGGBB.
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 * @return the pixel's color
+	 */
+	public int rgb(int x, int y) {
+		checkArgument(x >= 0 && x < width && y >= 0 && y < height, "(%s, %s) out of bounds", x, y);
+		return pixels[offset + y * stride + x] & 0xFFFFFF;
+	}
+
+	/**
+	 * Copies this image's pixels, in row-major order, into the given array,
+	 * or a new array if it is null or too small.  Pixels may include alpha.
+	 * @param dst the array to copy into, or null
+	 * @return the array copied into
+	 */
+	public int[] pixels(int[] dst) {
+		if (dst == null || dst.length < width * height)
+			dst = new int[width * height];
+		for (int y = 0; y < height; ++y)
+			System.arraycopy(pixels, offset + y * stride, dst, y * width, width);
+		return dst;
+	}
+
+	/**
+	 * Returns the mean color of the square of pixels within the given radius
+	 * of the given point, as 0xRRGGBB, with each channel rounded down.
+	 * @param x the x coordinate of the center
+	 * @param y the y coordinate of the center
+	 * @param radius the square's half-width (0 for just the center pixel)
+	 * @return the mean color
+	 */
+	public int average(int x, int y, int radius) {
+		checkArgument(x - radius >= 0 && x + radius < width && y - radius >= 0 && y + radius < height,
+				"(%s, %s) +/- %s out of bounds", x, y, radius);
+		int r = 0, g = 0, b = 0;
+		for (int row = y - radius; row <= y + radius; ++row)
+			for (int i = offset + row * stride + x - radius, end = i + 2 * radius; i <= end; ++i) {
+				int p = pixels[i];
+				r += (p >>> 16) & 0xFF;
+				g += (p >>> 8) & 0xFF;
+				b += p & 0xFF;
+			}
+		int n = (2 * radius + 1) * (2 * radius + 1);
+		return ((r / n) << 16) | ((g / n) << 8) | (b / n);
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites solutions to need fewer color-selector clicks.  Every ribbon must
+ * be clicked once, but the color selector only needs clicking when the color
+ * changes, so the goal is a complete solution with as few runs of same-color
+ * ribbons as possible.
+ *
+ * Working down from the top, any uniform ribbon can be peeled, and peeling
+ * never makes another ribbon non-uniform, so once a color is chosen it's
+ * always best to peel every ribbon that is (or becomes) uniform in that color
+ * or has no constrained cells left; those form one run.  The optimizer
+ * searches over the sequence of run colors breadth-first, merging sequences
+ * that peel the same ribbons, so the fewest runs are found exactly on boards
+ * with few enough reachable states (all boards up to about 10x10) and by beam
+ * search on larger ones.  The color selected when the puzzle starts (color 0)
+ * is free for the first run played.
+ */
+public final class ClickOptimizer {
+	private static final int DEFAULT_MAX_STATES = 1 << 14;
+	private final int maxStates;
+	public ClickOptimizer() {
+		this(DEFAULT_MAX_STATES);
+	}
+
+	/**
+	 * Creates a ClickOptimizer keeping at most the given number of states per
+	 * level of its search.
+	 * @param maxStates the beam width
+	 */
+	public ClickOptimizer(int maxStates) {
+		checkArgument(maxStates > 0, "maxStates: %s", maxStates);
+		this.maxStates = maxStates;
+	}
+
+	/**
+	 * Returns the number of color-selector clicks needed to play the given
+	 * solution, starting with color 0 selected.
+	 * @param solution a solution
+	 * @return the number of color changes
+	 */
+	public static int colorClicks(Solution solution) {
+		int clicks = 0;
+		byte current = 0;
+		for (int i = 0; i < solution.size(); ++i)
+			if (solution.color(i) != current) {
+				current = solution.color(i);
+				++clicks;
+			}
+		return clicks;
+	}
+
+	/**
+	 * Returns a complete solution to the given puzzle needing no more color
+	 * clicks than the given solution (once completed).
+	 * @param puzzle a puzzle
+	 * @param solution a solution to the puzzle
+	 * @return a complete solution needing as few color clicks as found
+	 */
+	public Solution optimize(Puzzle puzzle, Solution solution) {
+		Solution original = solution.complete(puzzle);
+		Solution optimized = new Search(puzzle).run();
+		assert new SolutionVerifier().isCorrect(puzzle, optimized) : puzzle + " " + optimized;
+		return colorClicks(optimized) < colorClicks(original) ? optimized : original;
+	}
+
+	/**
+	 * A run of same-color ribbons, linked to the runs above it.
+	 */
+	private static final class Run {
+		private final Run above;
+		private final byte color;
+		/**
+		 * The ribbons in this run, top first.
+		 */
+		private final int[] ribbons;
+		/**
+		 * The ribbons remaining after peeling this run and those above it.
+		 */
+		private final BitSet remaining;
+		private Run(Run above, byte color, int[] ribbons, BitSet remaining) {
+			this.above = above;
+			this.color = color;
+			this.ribbons = ribbons;
+			this.remaining = remaining;
+		}
+	}
+
+	private final class Search {
+		private final int rows, cols, colors;
+		private final byte[] cells;
+		private Search(Puzzle puzzle) {
+			this.rows = puzzle.rows();
+			this.cols = puzzle.cols();
+			this.cells = puzzle.toRowMajor();
+			int maxColor = 0;
+			for (byte c : cells)
+				maxColor = Math.max(maxColor, c);
+			this.colors = maxColor + 1;
+		}
+
+		private Solution run() {
+			if (rows + cols == 0) return Solution.empty();
+			BitSet all = new BitSet(rows + cols);
+			all.set(0, rows + cols);
+			List<Run> level = new ArrayList<>();
+			level.add(new Run(null, (byte)-1, new int[0], all));
+			Set<BitSet> seen = new HashSet<>();
+			seen.add(all);
+			while (!level.isEmpty()) {
+				Map<BitSet, Run> next = new LinkedHashMap<>();
+				Run done = null;
+				for (Run run : level)
+					for (int color = 0; color < colors; ++color) {
+						if (color == run.color) continue;
+						Run child = peel(run, (byte)color);
+						if (child == null) continue;
+						//ending on color 0 saves the first click
+						if (child.remaining.isEmpty() && (done == null || color == 0))
+							done = child;
+						if (seen.add(child.remaining))
+							next.put(child.remaining, child);
+					}
+				if (done != null)
+					return toSolution(done);
+				level = new ArrayList<>(next.values());
+				if (level.size() > maxStates) {
+					level.sort(Comparator.comparingInt(r -> r.remaining.cardinality()));
+					level = new ArrayList<>(level.subList(0, maxStates));
+				}
+			}
+			throw new IllegalArgumentException("unsolvable puzzle");
+		}
+
+		/**
+		 * Peels every ribbon that is or becomes uniform in the given color
+		 * below the given run, returning the new run or null if no ribbons
+		 * could be peeled.
+		 */
+		private Run peel(Run above, byte color) {
+			BitSet remaining = (BitSet)above.remaining.clone();
+			//the number of remaining crossings each ribbon has in other colors
+			int[] conflicts = new int[rows + cols];
+			for (int row = remaining.nextSetBit(0); row >= 0 && row < rows; row = remaining.nextSetBit(row + 1))
+				for (int col = remaining.nextSetBit(rows); col >= 0; col = remaining.nextSetBit(col + 1)) {
+					byte c = cells[row * cols + col - rows];
+					if (c != -1 && c != color) {
+						++conflicts[row];
+						++conflicts[col];
+					}
+				}
+			ArrayDeque<Integer> worklist = new ArrayDeque<>();
+			for (int ribbon = remaining.nextSetBit(0); ribbon >= 0; ribbon = remaining.nextSetBit(ribbon + 1))
+				if (conflicts[ribbon] == 0)
+					worklist.add(ribbon);
+			if (worklist.isEmpty()) return null;
+
+			int[] peeled = new int[remaining.cardinality()];
+			int size = 0;
+			while (!worklist.isEmpty()) {
+				int ribbon = worklist.remove();
+				remaining.clear(ribbon);
+				peeled[size++] = ribbon;
+				boolean isRow = ribbon < rows;
+				for (int cross = remaining.nextSetBit(isRow ? rows : 0); cross >= 0 && (isRow || cross < rows); cross = remaining.nextSetBit(cross + 1)) {
+					byte c = isRow ? cells[ribbon * cols + cross - rows] : cells[cross * cols + ribbon - rows];
+					if (c != -1 && c != color && --conflicts[cross] == 0)
+						worklist.add(cross);
+				}
+			}
+			return new Run(above, color, Arrays.copyOf(peeled, size), remaining);
+		}
+
+		private Solution toSolution(Run bottom) {
+			SolutionBuilder builder = new SolutionBuilder(rows, cols, false);
+			for (Run run = bottom; run.above != null; run = run.above)
+				for (int i = run.ribbons.length - 1; i >= 0; --i) {
+					int ribbon = run.ribbons[i];
+					if (ribbon < rows)
+						builder.addRow(ribbon, run.color);
+					else
+						builder.addCol(ribbon - rows, run.color);
+				}
+			return builder.build();
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Plays precomputed click plans on a background thread, pacing clicks as fast
+ * as the game keeps up.  Clicks are normally separated by the current delay,
+ * which starts at the minimum.  A step may carry a confirmation that checks
+ * the screen for the click's effect: the scheduler then waits for the
+ * effect instead of the delay, backing off (doubling the delay) when the game
+ * lags behind it and easing back toward the minimum as it keeps up.
+ *
+ * Plans run one at a time, in submission order.  Close the scheduler to stop
+ * its thread.
+ */
+public final class ClickScheduler implements AutoCloseable {
+	/**
+	 * One click in a plan.
+	 */
+	public static final class Step {
+		private final int x, y;
+		private final BooleanSupplier confirmation;
+		private Step(int x, int y, BooleanSupplier confirmation) {
+			this.x = x;
+			this.y = y;
+			this.confirmation = confirmation;
+		}
+
+		/**
+		 * Returns a click at the given point.
+		 * @param x the x coordinate
+		 * @param y the y coordinate
+		 * @return a step
+		 */
+		public static Step click(int x, int y) {
+			return new Step(x, y, null);
+		}
+
+		/**
+		 * Returns a click at the given point whose effect is visible once the
+		 * given confirmation returns true.
+		 * @param x the x coordinate
+		 * @param y the y coordinate
+		 * @param confirmation checks the screen for the click's effect
+		 * @return a step
+		 */
+		public static Step click(int x, int y, BooleanSupplier confirmation) {
+			return new Step(x, y, checkNotNull(confirmation));
+		}
+
+		@Override
+		public String toString() {
+			return String.format("(%d, %d)", x, y);
+		}
+	}
+
+	private static final long CONFIRMATION_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+	private final InputSink sink;
+	private final long minDelayNanos, maxDelayNanos;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(
+			new ThreadFactoryBuilder().setNameFormat("stratabot-clicks-%d").setDaemon(true).build());
+	private volatile Metrics metrics = Metrics.NONE;
+	/**
+	 * The current delay between clicks; only written on the executor thread.
+	 */
+	private volatile long delayNanos;
+	/**
+	 * Creates a scheduler.
+	 * @param sink delivers the clicks
+	 * @param minDelay the least delay between clicks
+	 * @param maxDelay the most delay between clicks, and the longest to wait
+	 * for a confirmation
+	 * @param unit the unit of the delays
+	 */
+	public ClickScheduler(InputSink sink, long minDelay, long maxDelay, TimeUnit unit) {
+		checkArgument(0 <= minDelay && minDelay <= maxDelay, "bad delays: %s, %s", minDelay, maxDelay);
+		this.sink = checkNotNull(sink);
+		this.minDelayNanos = unit.toNanos(minDelay);
+		this.maxDelayNanos = unit.toNanos(maxDelay);
+		this.delayNanos = minDelayNanos;
+	}
+
+	public void setMetrics(Metrics metrics) {
+		this.metrics = checkNotNull(metrics);
+	}
+
+	/**
+	 * Plays the given plan after any plans already submitted.  The returned
+	 * future completes when the last click is delivered (and confirmed, if it
+	 * has a confirmation), or exceptionally (caused by an
+	 * IllegalStateException) if a confirmation never comes.
+	 * @param plan the clicks to make
+	 * @return a future completing when the plan is done
+	 */
+	public CompletableFuture<Void> play(List<Step> plan) {
+		ImmutableList<Step> steps = ImmutableList.copyOf(plan);
+		return CompletableFuture.runAsync(() -> steps.forEach(this::step), executor);
+	}
+
+	/**
+	 * Plays the given plan, waiting for it to finish.
+	 * @param plan the clicks to make
+	 */
+	public void playAndWait(List<Step> plan) {
+		play(plan).join();
+	}
+
+	private void step(Step step) {
+		long start = System.nanoTime();
+		sink.click(step.x, step.y);
+		long clicked = System.nanoTime();
+		metrics.time(Metrics.Phase.CLICK, clicked - start);
+		metrics.count(Metrics.Counter.CLICKS, 1);
+		if (step.confirmation == null) {
+			sleepUninterruptibly(delayNanos, TimeUnit.NANOSECONDS);
+			return;
+		}
+
+		long waited;
+		while (!step.confirmation.getAsBoolean()) {
+			waited = System.nanoTime() - clicked;
+			if (waited > maxDelayNanos)
+				throw new IllegalStateException("click at " + step + " not confirmed after " + TimeUnit.NANOSECONDS.toMillis(waited) + " ms");
+			sleepUninterruptibly(CONFIRMATION_POLL_NANOS, TimeUnit.NANOSECONDS);
+		}
+		waited = System.nanoTime() - clicked;
+		if (waited > delayNanos)
+			//the game is lagging; slow down
+			delayNanos = Math.min(maxDelayNanos, Math.max(2 * delayNanos, waited));
+		else
+			//the game kept up; ease back toward the minimum
+			delayNanos = Math.max(minDelayNanos, (3 * delayNanos + waited) / 4);
+		if (waited < minDelayNanos)
+			sleepUninterruptibly(minDelayNanos - waited, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the current delay between unconfirmed clicks.
+	 * @param unit the unit to return the delay in
+	 * @return the current delay
+	 */
+	public long currentDelay(TimeUnit unit) {
+		return unit.convert(delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A compact binary file of puzzles, each optionally followed by its solution
+ * (or a note that it has none).  Unlike {@link Puzzle#fromString(String)},
+ * corpora support any number of colors and need no per-line parsing, and
+ * readers memory-map the file, so corpora of any size can be streamed in
+ * constant memory.
+ *
+ * A corpus is an 8-byte file header (the magic number and version) followed by
+ * records.  All integers are big-endian.  Each record is:
+ * <pre>
+ * int    length of the rest of the record, in bytes
+ * byte   flags: HAS_RESULT, SOLVABLE, WIDE
+ * short  rows (unsigned)
+ * short  cols (unsigned)
+ * byte[] cells in row-major order: if WIDE, one byte per cell; otherwise two
+ *        cells per byte, as color+1 in a nibble, low nibble first
+ * if SOLVABLE:
+ *   int    number of ribbons in the solution
+ *   int[]  ribbons, bottom-to-top, with bit 31 set for columns
+ *   byte[] colors, in the same order
+ * </pre>
+ * A record with HAS_RESULT but not SOLVABLE is a puzzle known to be unsolvable.
+ * The length prefix lets readers skip records without decoding them.
+ */
+public final class Corpus {
+	private static final int MAGIC = 0x53545241; //"STRA"
+	private static final short VERSION = 1;
+	private static final int FILE_HEADER_BYTES = 8;
+	private static final int RECORD_HEADER_BYTES = 5;
+	private static final int MAX_SIDE = 0xFFFF;
+	private static final int HAS_RESULT = 1, SOLVABLE = 2, WIDE = 4;
+	private Corpus() {}
+
+	/**
+	 * Writes a length-prefixed record for the given puzzle and result.
+	 */
+	static void writeRecord(DataOutput out, Puzzle puzzle, boolean hasResult, Optional<Solution> solution) throws IOException {
+		int rows = puzzle.rows(), cols = puzzle.cols();
+		checkArgument(rows <= MAX_SIDE && cols <= MAX_SIDE, "too big: %s x %s", rows, cols);
+		byte[] cells = puzzle.toRowMajor();
+		boolean wide = false;
+		for (byte b : cells) {
+			checkArgument(b >= -1, "bad color: %s", b);
+			wide |= b >= 15;
+		}
+		byte[] encoded = wide ? cells : pack(cells);
+		Solution s = solution.orElse(null);
+		int length = RECORD_HEADER_BYTES + encoded.length + (s != null ? solutionBytes(s) : 0);
+
+		out.writeInt(length);
+		out.writeByte((hasResult ? HAS_RESULT : 0) | (s != null ? SOLVABLE : 0) | (wide ? WIDE : 0));
+		out.writeShort(rows);
+		out.writeShort(cols);
+		out.write(encoded);
+		if (s != null)
+			writeSolution(out, s);
+	}
+
+	private static byte[] pack(byte[] cells) {
+		byte[] packed = new byte[(cells.length + 1) >>> 1];
+		for (int i = 0; i < cells.length; ++i)
+			packed[i >>> 1] |= (cells[i] + 1) << ((i & 1) << 2);
+		return packed;
+	}
+
+	/**
+	 * Returns the number of bytes {@link #writeSolution} writes for the given
+	 * solution.
+	 */
+	static int solutionBytes(Solution s) {
+		return 4 + 5 * s.size();
+	}
+
+	/**
+	 * Writes the given solution's size, ribbons and colors.
+	 */
+	static void writeSolution(DataOutput out, Solution s) throws IOException {
+		out.writeInt(s.size());
+		for (int i = 0; i < s.size(); ++i)
+			out.writeInt(s.ribbonIndex(i) | (s.isCol(i) ? Solution.COL_FLAG : 0));
+		for (int i = 0; i < s.size(); ++i)
+			out.writeByte(s.color(i));
+	}
+
+	/**
+	 * Reads a record (after its length prefix) from the given buffer.
+	 * @throws IllegalArgumentException if the record is malformed
+	 * @throws BufferUnderflowException if the record is truncated
+	 */
+	static Record readRecord(ByteBuffer buffer) {
+		int flags = buffer.get();
+		int rows = Short.toUnsignedInt(buffer.getShort()), cols = Short.toUnsignedInt(buffer.getShort());
+		boolean wide = (flags & WIDE) != 0;
+		//rows * cols can overflow an int
+		long cellBytes = wide ? (long)rows * cols : ((long)rows * cols + 1) >>> 1;
+		checkArgument(cellBytes <= buffer.remaining(), "%s x %s cells in %s bytes", rows, cols, buffer.remaining());
+		byte[] cells = new byte[(int)cellBytes];
+		buffer.get(cells);
+		if (wide)
+			for (byte c : cells)
+				checkArgument(c >= -1, "bad color %s", c);
+		Puzzle puzzle = wide ? Puzzle.fromRowMajor(cells, rows, cols) : Puzzle.fromPacked(cells, rows, cols);
+		if ((flags & SOLVABLE) == 0)
+			return new Record(puzzle, (flags & HAS_RESULT) != 0, Optional.empty());
+		return new Record(puzzle, true, Optional.of(readSolution(buffer, rows, cols)));
+	}
+
+	/**
+	 * Reads a solution written by {@link #writeSolution} for a puzzle of the
+	 * given size from the given buffer.  The data is untrusted, so the
+	 * ribbons are validated as they're read.
+	 * @throws IllegalArgumentException if the solution is malformed
+	 * @throws IndexOutOfBoundsException if a ribbon is out of range
+	 * @throws BufferUnderflowException if the solution is truncated
+	 */
+	static Solution readSolution(ByteBuffer buffer, int rows, int cols) {
+		int size = buffer.getInt();
+		checkArgument(size >= 0 && size <= rows + cols, "solution size %s", size);
+		SolutionBuilder builder = new SolutionBuilder(rows, cols);
+		int colorsBase = buffer.position() + 4 * size;
+		for (int i = 0; i < size; ++i) {
+			int ribbon = buffer.getInt();
+			byte color = buffer.get(colorsBase + i);
+			if ((ribbon & Solution.COL_FLAG) != 0)
+				builder.addCol(ribbon & ~Solution.COL_FLAG, color);
+			else
+				builder.addRow(ribbon, color);
+		}
+		buffer.position(colorsBase + size);
+		return builder.build();
+	}
+
+	/**
+	 * A puzzle read from a corpus, and its solution, if recorded.
+	 */
+	public static final class Record {
+		private final Puzzle puzzle;
+		private final boolean hasResult;
+		private final Optional<Solution> solution;
+		private Record(Puzzle puzzle, boolean hasResult, Optional<Solution> solution) {
+			this.puzzle = puzzle;
+			this.hasResult = hasResult;
+			this.solution = solution;
+		}
+
+		public Puzzle puzzle() {
+			return puzzle;
+		}
+
+		/**
+		 * Returns true if this record says whether its puzzle is solvable.
+		 * @return true if this record has a result
+		 */
+		public boolean hasResult() {
+			return hasResult;
+		}
+
+		/**
+		 * Returns this puzzle's solution, or an empty Optional if it is
+		 * unsolvable.
+		 * @return this puzzle's solution, if any
+		 * @throws IllegalStateException if this record has no result
+		 */
+		public Optional<Solution> solution() {
+			checkState(hasResult, "no result recorded");
+			return solution;
+		}
+
+		@Override
+		public String toString() {
+			return puzzle + (hasResult ? ": " + solution.map(Solution::toString).orElse("no solution") : "");
+		}
+	}
+
+	/**
+	 * Writes a corpus sequentially through a buffer.
+	 */
+	public static final class Writer implements AutoCloseable {
+		private final DataOutputStream out;
+		private long records;
+		private Writer(DataOutputStream out) throws IOException {
+			this.out = out;
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeShort(0);
+		}
+
+		/**
+		 * Creates (or truncates) the given file and returns a writer for it.
+		 * @param path the file to write
+		 * @return a writer
+		 * @throws IOException if the file can't be opened
+		 */
+		public static Writer create(Path path) throws IOException {
+			return new Writer(new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)));
+		}
+
+		/**
+		 * Writes the given puzzle without a result.
+		 * @param puzzle the puzzle
+		 * @return this
+		 * @throws IOException if writing fails
+		 */
+		public Writer write(Puzzle puzzle) throws IOException {
+			return write(puzzle, false, Optional.empty());
+		}
+
+		/**
+		 * Writes the given puzzle with its solution, or as unsolvable if the
+		 * solution is empty.
+		 * @param puzzle the puzzle
+		 * @param solution the puzzle's solution, if any
+		 * @return this
+		 * @throws IOException if writing fails
+		 */
+		public Writer write(Puzzle puzzle, Optional<Solution> solution) throws IOException {
+			return write(puzzle, true, solution);
+		}
+
+		private Writer write(Puzzle puzzle, boolean hasResult, Optional<Solution> solution) throws IOException {
+			writeRecord(out, puzzle, hasResult, solution);
+			++records;
+			return this;
+		}
+
+		/**
+		 * Returns the number of records written so far.
+		 * @return the number of records written
+		 */
+		public long records() {
+			return records;
+		}
+
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads a corpus through a sliding memory-mapped window, so files larger
+	 * than a single mapping (2GB) can be read and only the window is resident.
+	 * Records are decoded straight from the mapping, and nibble-packed cells
+	 * are handed to the Puzzle without unpacking.
+	 */
+	public static final class Reader implements Iterator<Record>, AutoCloseable {
+		private static final long DEFAULT_WINDOW_BYTES = 64 << 20;
+		private final Path path;
+		private final FileChannel channel;
+		private final long fileSize, windowBytes;
+		private ByteBuffer window;
+		/**
+		 * The file offset of the start of the window.
+		 */
+		private long windowBase;
+		private Reader(Path path, FileChannel channel, long windowBytes) throws IOException {
+			this.path = path;
+			this.channel = channel;
+			this.fileSize = channel.size();
+			this.windowBytes = windowBytes;
+			map(0, FILE_HEADER_BYTES);
+			if (fileSize < FILE_HEADER_BYTES || window.getInt() != MAGIC)
+				throw new IOException(path + ": not a corpus");
+			short version = window.getShort();
+			if (version != VERSION)
+				throw new IOException(path + ": unsupported version " + version);
+			window.getShort();
+		}
+
+		/**
+		 * Opens the given corpus for reading.
+		 * @param path the file to read
+		 * @return a reader
+		 * @throws IOException if the file can't be opened or isn't a corpus
+		 */
+		public static Reader open(Path path) throws IOException {
+			return open(path, DEFAULT_WINDOW_BYTES);
+		}
+
+		/**
+		 * Opens the given corpus for reading, mapping at least the given number
+		 * of bytes at a time.
+		 * @param path the file to read
+		 * @param windowBytes the size of the mapped window
+		 * @return a reader
+		 * @throws IOException if the file can't be opened or isn't a corpus
+		 */
+		public static Reader open(Path path, long windowBytes) throws IOException {
+			checkArgument(windowBytes >= FILE_HEADER_BYTES && windowBytes <= Integer.MAX_VALUE, "windowBytes: %s", windowBytes);
+			FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+			try {
+				return new Reader(path, channel, windowBytes);
+			} catch (IOException | RuntimeException ex) {
+				channel.close();
+				throw ex;
+			}
+		}
+
+		/**
+		 * Maps a window starting at the given file offset and containing at
+		 * least the given number of bytes (if the file is that long).
+		 */
+		private void map(long offset, long minBytes) throws IOException {
+			long size = Math.min(Math.max(windowBytes, minBytes), fileSize - offset);
+			checkArgument(size <= Integer.MAX_VALUE, "record too large: %s", minBytes);
+			window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.max(size, 0));
+			windowBase = offset;
+		}
+
+		/**
+		 * Ensures the window contains the given number of bytes at the
+		 * current position, remapping if necessary.
+		 */
+		private void ensure(long bytes) throws IOException {
+			if (window.remaining() >= bytes) return;
+			long position = windowBase + window.position();
+			if (fileSize - position < bytes)
+				throw new IOException(String.format("%s: truncated at offset %d", path, position));
+			map(position, bytes);
+		}
+
+		private long position() {
+			return windowBase + window.position();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return position() < fileSize;
+		}
+
+		@Override
+		public Record next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			try {
+				ensure(4);
+				int length = window.getInt();
+				if (length < RECORD_HEADER_BYTES)
+					throw new IOException(String.format("%s: bad record length %d at offset %d", path, length, position() - 4));
+				ensure(length);
+				int end = window.position() + length;
+				Record record = readRecord(window);
+				if (window.position() != end)
+					throw new IOException(String.format("%s: bad record length %d at offset %d", path, length, position() - length - 4));
+				return record;
+			} catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException ex) {
+				throw new UncheckedIOException(new IOException(String.format("%s: corrupt record before offset %d", path, position()), ex));
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		/**
+		 * Returns a sequential stream of the remaining records.  Closing the
+		 * stream does not close this reader.
+		 * @return a stream of the remaining records
+		 */
+		public Stream<Record> stream() {
+			return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+		}
+
+		@Override
+		public void close() throws IOException {
+			window = null;
+			channel.close();
+		}
+	}
+}
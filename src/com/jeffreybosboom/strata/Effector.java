@@ -18,17 +18,23 @@
 
 package com.jeffreybosboom.strata;
 
-import com.google.common.math.IntMath;
-import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
+import static com.google.common.base.Preconditions.checkNotNull;
 import com.jeffreybosboom.windowlib.Window;
 import java.awt.AWTException;
-import java.awt.Color;
 import java.awt.Rectangle;
 import java.awt.Robot;
-import java.awt.event.InputEvent;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -36,91 +42,99 @@ import java.util.concurrent.TimeUnit;
  * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
  * @since 8/31/2014
  */
-public final class Effector {
+public final class Effector implements AutoCloseable {
 	//<editor-fold defaultstate="collapsed" desc="Constants">
-	private static final int WIDTH = 1024, HEIGHT = 768;
-	private static final int[][] ROWS_3 = subdivide(342, 390, 450, 498, 3);
-	private static final int[][] COLS_3 = subdivide(576, 498, 682, 390, 3);
-	private static final int[][][] CELLS_3 = cellPoints(ROWS_3, COLS_3);
-
-	private static final int[][] ROWS_4 = subdivide(334, 378, 462, 507, 4);
-	private static final int[][] COLS_4 = subdivide(560, 506, 690, 378, 4);
-	private static final int[][][] CELLS_4 = cellPoints(ROWS_4, COLS_4);
-
-	private static final int[][] ROWS_5 = subdivide(328, 368, 470, 512, 5);
-	private static final int[][] COLS_5 = subdivide(552, 512, 696, 368, 5);
-	private static final int[][][] CELLS_5 = cellPoints(ROWS_5, COLS_5);
-
-	private static final int[][] ROWS_6 = subdivide(325, 362, 477, 514, 6);
-	private static final int[][] COLS_6 = subdivide(547, 514, 699, 362, 6);
-	private static final int[][][] CELLS_6 = cellPoints(ROWS_6, COLS_6);
-
-	private static final int[][][] ROWS = {
-		null, null, null, ROWS_3, ROWS_4, ROWS_5, ROWS_6
-	};
-	private static final int[][][] COLS = {
-		null, null, null, COLS_3, COLS_4, COLS_5, COLS_6
-	};
-	private static final int[][][][] CELLS = {
-		null, null, null, CELLS_3, CELLS_4, CELLS_5, CELLS_6
-	};
-
-	private static final int[][] COLORS_2 = {
-		{476, 740},
-		{550, 740}
-	};
-	private static final int[][] COLORS_3 = subdivide(440, 740, 585, 740, 3);
-	private static final int[][] COLORS_4 = subdivide(400, 740, 620, 740, 4);
-	private static final int[][] COLORS_5 = subdivide(366, 740, 658, 740, 5);
-	private static final int[][] COLORS_6 = subdivide(330, 740, 695, 740, 6);
-	private static final int[][][] COLORS = {
-		null, null, COLORS_2, COLORS_3, COLORS_4, COLORS_5, COLORS_6
-	};
-	private static final Color BACKGROUND_COLOR = new Color(208, 202, 183);
+	static final int BACKGROUND_COLOR = 0xD0CAB7;
+	/**
+	 * The least and most delay between clicks; the scheduler adapts between
+	 * them by watching the color selectors.
+	 */
+	private static final long MIN_CLICK_DELAY_MILLIS = 30, MAX_CLICK_DELAY_MILLIS = 1000;
+	/**
+	 * The perceptual difference between a color selector's selected and
+	 * unselected appearance that confirms a selection changed.
+	 */
+	private static final double SELECTION_DIFFERENCE = 20;
+	/**
+	 * How long to wait for the end-of-puzzle and next-puzzle animations to
+	 * start (the fixed sleeps these replace) and to finish.
+	 */
+	private static final long ANIMATION_START_MILLIS = 500, NEXT_PUZZLE_START_MILLIS = 3000,
+			SETTLE_TIMEOUT_MILLIS = 10000;
+	/**
+	 * The least margin between a cell's best and second-best color matches
+	 * for it to be classified.
+	 */
+	private static final double MIN_MARGIN = 10;
+	/**
+	 * The half-width of the square of pixels averaged for each sample.
+	 */
+	private static final int SAMPLE_RADIUS = 2;
+	/**
+	 * Where calibrated board geometry profiles are cached.
+	 */
+	private static final Path PROFILE_DIRECTORY = Paths.get(System.getProperty("user.home"), ".stratabot", "geometry");
+	/**
+	 * Where main keeps solutions between runs.
+	 */
+	private static final Path SOLUTION_STORE = Paths.get(System.getProperty("user.home"), ".stratabot", "solutions.store");
+	//</editor-fold>
 
+	private final FrameSource frames;
+	private final ClickScheduler clicks;
+	private final Path profileDirectory;
 	/**
-	 * Divides the line segment between (xa, ya) and (xb, yb) into points-1
-	 * line segments of approximately equal length, returning the points
-	 * defining these segments.
-	 * @param xa the x coordinate of the first point
-	 * @param ya the y coordinate of the first point
-	 * @param xb the x coordinate of the second point
-	 * @param yb the y coordinate of the second point
-	 * @param points the number of points to return
-	 * @return an array of points defining the divided line segments
+	 * Board geometry by profile name, so each is only loaded or calibrated
+	 * once per run.
 	 */
-	private static int[][] subdivide(int xa, int ya, int xb, int yb, int points) {
-		double x = xa, y = ya;
-		double xIncr = (xb - xa)/(points-1), yIncr = (yb - ya)/(points-1);
-		int[][] retval = new int[points][];
-		for (int i = 0; i < retval.length; ++i, x += xIncr, y += yIncr)
-			retval[i] = new int[]{(int)Math.round(x), (int)Math.round(y)};
-		return retval;
+	private final Map<String, BoardGeometry> geometries = new HashMap<>();
+	private final Solver solver = new Solver();
+	private SolutionStore solutions;
+	private Metrics metrics = Metrics.NONE;
+	public Effector() throws AWTException, IOException, InterruptedException {
+		this(new Robot(), findStrata());
 	}
 
-	private static int[][][] cellPoints(int[][] rowSelectors, int[][] colSelectors) {
-		int[][][] retval = new int[rowSelectors.length][colSelectors.length][2];
-		for (int row = 0; row < rowSelectors.length; ++row)
-			for (int col = 0; col < colSelectors.length; ++col) {
-				int[] r = rowSelectors[row], c = colSelectors[col];
-				//row line has slope -1, col line has slope 1 (y grows downward)
-				int br = r[0] + r[1], bc = -c[0] + c[1];
-				retval[row][col][0] = (br - bc)/2;
-				retval[row][col][1] = retval[row][col][0] + bc;
-			}
-		return retval;
+	private Effector(Robot robot, Rectangle strataRect) {
+		this(new RobotFrameSource(robot, strataRect), new RobotInputSink(robot, strataRect), PROFILE_DIRECTORY);
 	}
-	//</editor-fold>
 
-	private final Robot robot;
-	private final Rectangle strataRect;
-	public Effector() throws AWTException, IOException, InterruptedException {
-		this.robot = new Robot();
-		robot.setAutoDelay(200);
+	/**
+	 * Creates an Effector watching and clicking through the given frame source
+	 * and input sink, such as a {@link SimulatedStrata}.
+	 * @param frames the frames of the Strata window
+	 * @param input delivers clicks to the Strata window
+	 * @param profileDirectory where to cache board geometry profiles
+	 */
+	public Effector(FrameSource frames, InputSink input, Path profileDirectory) {
+		this.frames = checkNotNull(frames);
+		this.clicks = new ClickScheduler(input, MIN_CLICK_DELAY_MILLIS, MAX_CLICK_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+		this.profileDirectory = checkNotNull(profileDirectory);
+	}
+
+	private static Rectangle findStrata() throws IOException, InterruptedException {
 		Window wnd = Window.findWindowByTitle("Strata");
 		wnd.setInForeground();
 		wnd.bringToTop();
-		this.strataRect = wnd.getClientAreaScreenCoordinates();
+		return wnd.getClientAreaScreenCoordinates();
+	}
+
+	/**
+	 * Sets the metrics this effector (and its solvers) report to.
+	 * @param metrics the metrics, or {@link Metrics#NONE}
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = checkNotNull(metrics);
+		clicks.setMetrics(metrics);
+		solver.setMetrics(metrics);
+	}
+
+	/**
+	 * Sets the store consulted before solving each puzzle, and updated after.
+	 * @param solutions a solution store, or null to always solve
+	 */
+	public void setSolutionStore(SolutionStore solutions) {
+		this.solutions = solutions;
 	}
 
 	/**
@@ -131,31 +145,35 @@ public final class Effector {
 	 * @param numColors the number of colors in the puzzle
 	 */
 	public void playPuzzle(int sideLength, int numColors) {
-		playPuzzle(sideLength, getPuzzleColors(numColors));
+		BoardGeometry geometry = geometry(sideLength, numColors);
+		playPuzzle(geometry, classifier(getPuzzleColors(geometry)));
 	}
 
-	private void playPuzzle(int sideLength, Color[] colors) {
-		BufferedImage screenshot = robot.createScreenCapture(strataRect);
-		byte[][] puzzleBytes = new byte[sideLength][sideLength];
-		for (int row = 0; row < sideLength; ++row)
-			for (int col = 0; col < sideLength; ++col) {
-				Color c = getPixelColor(CELLS[sideLength][row][col], screenshot);
-				puzzleBytes[row][col] = indexOfClosestColor(c, colors);
-			}
-
-		Puzzle puzzle = Puzzle.fromArray(puzzleBytes);
-		System.out.println(puzzle);
-		Solver solver = new Solver();
-		Solution solution = solver.solve(puzzle).get().complete(puzzle);
-		System.out.println(solution);
-		System.out.format("%d states examined, %d backtracks%n", solver.puzzlesExamined(), solver.backtracks());
+	private void playPuzzle(BoardGeometry geometry, PaletteClassifier classifier) {
+		Rectangle region = puzzleRegion(geometry);
+		BufferedImage image = capture(region);
+		long start = System.nanoTime();
+		Puzzle puzzle = readPuzzle(image, region, geometry, classifier);
+		metrics.time(Metrics.Phase.CLASSIFY, System.nanoTime() - start);
+		Optional<Solution> solved = solve(puzzle);
+		Solution solution = new ClickOptimizer().optimize(puzzle, solved.get());
+		new SolutionVerifier().verify(puzzle, solution).ifPresent(m -> {
+			throw new IllegalStateException("wrong solution for " + puzzle + ": " + m);
+		});
 
+		List<ClickScheduler.Step> plan = new ArrayList<>();
 		byte currentColor = 0;
 		for (int i = 0; i < solution.size(); ++i) {
-			if (solution.color(i) != currentColor)
-				click(COLORS[colors.length][(currentColor = solution.color(i))]);
-			click((solution.isRow(i) ? ROWS[sideLength] : COLS[sideLength])[solution.ribbonIndex(i)]);
+			if (solution.color(i) != currentColor) {
+				currentColor = solution.color(i);
+				int[] selector = geometry.colorSelector(currentColor);
+				int unselected = classifier.color(currentColor);
+				plan.add(ClickScheduler.Step.click(selector[0], selector[1], () -> changedFrom(selector, unselected)));
+			}
+			int[] ribbon = solution.isRow(i) ? geometry.rowSelector(solution.ribbonIndex(i)) : geometry.colSelector(solution.ribbonIndex(i));
+			plan.add(ClickScheduler.Step.click(ribbon[0], ribbon[1]));
 		}
+		clicks.playAndWait(plan);
 	}
 
 	/**
@@ -170,115 +188,213 @@ public final class Effector {
 		//We could share the screenshot between getting colors and playing the
 		//first puzzle, but that's probably not worth it.
 		int puzzles = sideLength*sideLength;
-		Color[] colors = getPuzzleColors(numColors);
+		BoardGeometry geometry = geometry(sideLength, numColors);
+		PaletteClassifier classifier = classifier(getPuzzleColors(geometry));
+		int[] next = geometry.nextButton();
+		//the region watched for the next button's animations
+		Rectangle nextRegion = new Rectangle(next[0] - 20, next[1] - 10, 40, 20);
+		Rectangle boardRegion = geometry.cellBounds();
+		boardRegion.grow(10, 10);
+		StabilityDetector detector = new StabilityDetector(frames,
+				Arrays.asList(boardRegion.intersection(frames.bounds()), nextRegion.intersection(frames.bounds())),
+				20, TimeUnit.MILLISECONDS, 3, 4);
 		while (puzzles-- > 0) {
-			playPuzzle(sideLength, colors);
-			sleepUninterruptibly(500, TimeUnit.MILLISECONDS);
-			click(new int[]{510, 622});
-			sleepUninterruptibly(3000, TimeUnit.MILLISECONDS);
+			playPuzzle(geometry, classifier);
+			settle(detector, ANIMATION_START_MILLIS);
+			click(next);
+			settle(detector, NEXT_PUZZLE_START_MILLIS);
 		}
 	}
 
-	private Color[] getPuzzleColors(int numColors) {
-		BufferedImage screenshot = robot.createScreenCapture(strataRect);
-		Color[] colors = new Color[numColors];
+	/**
+	 * Waits for an animation to start (up to the given time) and finish.
+	 */
+	private void settle(StabilityDetector detector, long startMillis) {
+		long start = System.nanoTime();
+		boolean settled = detector.awaitSettled(startMillis, SETTLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		metrics.time(Metrics.Phase.SETTLE, System.nanoTime() - start);
+		if (!settled)
+			throw new IllegalStateException("screen still changing after " + SETTLE_TIMEOUT_MILLIS + " ms");
+	}
+
+	/**
+	 * Returns the geometry of the board with the given side length and number
+	 * of colors at the current window size, loading it from its cached
+	 * profile or, the first time, calibrating it from a screenshot (so this
+	 * must be called at a puzzle screen) and caching it.
+	 */
+	private BoardGeometry geometry(int sideLength, int numColors) {
+		Rectangle bounds = frames.bounds();
+		String name = String.format("%dx%d-%dx%d-%d.properties", bounds.width, bounds.height, sideLength, sideLength, numColors);
+		BoardGeometry geometry = geometries.get(name);
+		if (geometry != null) return geometry;
+		Path profile = profileDirectory.resolve(name);
+		try {
+			if (Files.exists(profile))
+				geometry = BoardGeometry.load(profile);
+			else {
+				geometry = BoardGeometry.calibrate(capture(bounds), sideLength, numColors, BACKGROUND_COLOR);
+				geometry.save(profile);
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		geometries.put(name, geometry);
+		return geometry;
+	}
+
+	/**
+	 * Solves the given puzzle, through the solution store if there is one.
+	 * The solver times its own solves; store hits are timed here.
+	 */
+	private Optional<Solution> solve(Puzzle puzzle) {
+		if (solutions == null)
+			return solver.solve(puzzle);
+		boolean[] missed = {false};
+		long start = System.nanoTime();
+		Optional<Solution> solved = solutions.solve(puzzle, p -> {
+			missed[0] = true;
+			return solver.solve(p);
+		});
+		if (!missed[0]) {
+			metrics.time(Metrics.Phase.SOLVE, System.nanoTime() - start);
+			metrics.count(Metrics.Counter.STORE_HITS, 1);
+		}
+		return solved;
+	}
+
+	/**
+	 * Returns the region that must be captured to read the puzzle: the
+	 * cells' bounding box, plus the sampling radius.
+	 */
+	private static Rectangle puzzleRegion(BoardGeometry geometry) {
+		Rectangle r = geometry.cellBounds();
+		r.grow(SAMPLE_RADIUS, SAMPLE_RADIUS);
+		return r;
+	}
+
+	private BufferedImage capture(Rectangle region) {
+		long start = System.nanoTime();
+		BufferedImage image = frames.capture(region);
+		metrics.time(Metrics.Phase.CAPTURE, System.nanoTime() - start);
+		return image;
+	}
+
+	private int[] getPuzzleColors(BoardGeometry geometry) {
 		//Initially the first color is selected (saturated), so we get the other
-		//colors first, then click another.
+		//colors first, then click another.  Only the color bar is captured.
+		int numColors = geometry.colors();
+		Rectangle region = new Rectangle(geometry.colorSelector(0)[0], geometry.colorSelector(0)[1], 1, 1);
+		for (int i = 1; i < numColors; ++i)
+			region.add(geometry.colorSelector(i)[0], geometry.colorSelector(i)[1]);
+		region.grow(SAMPLE_RADIUS + 1, SAMPLE_RADIUS + 1);
+		CellSampler sampler = new CellSampler(capture(region));
+		int[] colors = new int[numColors];
 		for (int i = 1; i < numColors; ++i)
-			colors[i] = getPixelColor(COLORS[numColors][i], screenshot);
-		click(COLORS[numColors][1]);
-		colors[0] = getPixelColor(COLORS[numColors][0]);
-		click(COLORS[numColors][0]);
+			colors[i] = sample(sampler, region, geometry.colorSelector(i));
+		int[] first = geometry.colorSelector(0), second = geometry.colorSelector(1);
+		int selected = sample(sampler, region, first);
+		clicks.playAndWait(Arrays.asList(ClickScheduler.Step.click(second[0], second[1], () -> changedFrom(first, selected))));
+		colors[0] = sample(new CellSampler(capture(region)), region, first);
+		clicks.playAndWait(Arrays.asList(ClickScheduler.Step.click(first[0], first[1], () -> changedFrom(first, colors[0]))));
 		return colors;
 	}
 
-	private static int[][] mooreNeighborhood(int n) {
-		int[][] retval = new int[IntMath.pow(2*n+1, 2)][];
-		int idx = 0;
-		for (int x = -n; x < n+1; ++x)
-			for (int y = -n; y < n+1; ++y)
-				retval[idx++] = new int[]{x, y};
-		return retval;
+	/**
+	 * Returns true if the color at the given point is perceptibly different
+	 * from the given color, capturing only the sampled pixels.
+	 */
+	private boolean changedFrom(int[] xy, int rgb) {
+		Rectangle region = new Rectangle(xy[0] - SAMPLE_RADIUS, xy[1] - SAMPLE_RADIUS, 2 * SAMPLE_RADIUS + 1, 2 * SAMPLE_RADIUS + 1);
+		int now = new CellSampler(frames.capture(region)).average(SAMPLE_RADIUS, SAMPLE_RADIUS, SAMPLE_RADIUS);
+		return PaletteClassifier.perceptualDifference(now, rgb) > SELECTION_DIFFERENCE;
 	}
-	private static final int[][] NEIGHBORHOOD = mooreNeighborhood(2);
-	private Color getPixelColor(int[] xy) {
-		assert xy.length == 2;
-		int r = 0, g = 0, b = 0;
-		for (int[] adj : NEIGHBORHOOD) {
-			Color c = robot.getPixelColor(xy[0] + strataRect.getLocation().x + adj[0],
-					xy[1] + strataRect.getLocation().y + adj[1]);
-			r += c.getRed();
-			g += c.getGreen();
-			b += c.getBlue();
-		}
-		return new Color(r/NEIGHBORHOOD.length, g/NEIGHBORHOOD.length, b/NEIGHBORHOOD.length);
+
+	private void click(int[] xy) {
+		clicks.playAndWait(Arrays.asList(ClickScheduler.Step.click(xy[0], xy[1])));
 	}
 
-	private Color getPixelColor(int[] xy, BufferedImage screenshot) {
-		assert xy.length == 2;
-		int r = 0, g = 0, b = 0;
-		for (int[] adj : NEIGHBORHOOD) {
-			Color c = new Color(screenshot.getRGB(xy[0] + adj[0], xy[1] + adj[1]));
-			r += c.getRed();
-			g += c.getGreen();
-			b += c.getBlue();
-		}
-		return new Color(r/NEIGHBORHOOD.length, g/NEIGHBORHOOD.length, b/NEIGHBORHOOD.length);
+	static PaletteClassifier classifier(int[] colors) {
+		return new PaletteClassifier(colors, BACKGROUND_COLOR, MIN_MARGIN);
 	}
 
 	/**
-	 * Left-clicks at the given coordinates in the Strata window.
-	 * @param xy
+	 * Calibrates board geometry from the given screenshot of the Strata
+	 * window's client area, for testing calibration on saved screenshots.
+	 * @param screenshot a screenshot of a puzzle screen
+	 * @param sideLength the puzzle's side length
+	 * @param numColors the number of colors in the puzzle
+	 * @return the board's geometry
 	 */
-	private void click(int[] xy) {
-		assert xy.length == 2;
-		System.out.println("click "+Arrays.toString(xy));
-		robot.mouseMove(xy[0] + strataRect.getLocation().x, xy[1] + strataRect.getLocation().y);
-		robot.mousePress(InputEvent.BUTTON1_DOWN_MASK);
-		robot.mouseRelease(InputEvent.BUTTON1_DOWN_MASK);
+	static BoardGeometry calibrate(BufferedImage screenshot, int sideLength, int numColors) {
+		return BoardGeometry.calibrate(screenshot, sideLength, numColors, BACKGROUND_COLOR);
+	}
+
+	/**
+	 * Reads the puzzle from the given screenshot of the Strata window's
+	 * client area.
+	 * @param screenshot a screenshot
+	 * @param geometry the board's geometry
+	 * @param classifier classifies the puzzle's colors
+	 * @return the puzzle
+	 * @throws IllegalStateException if any cell's color is ambiguous
+	 */
+	static Puzzle readPuzzle(BufferedImage screenshot, BoardGeometry geometry, PaletteClassifier classifier) {
+		return readPuzzle(screenshot, new Rectangle(0, 0, screenshot.getWidth(), screenshot.getHeight()), geometry, classifier);
 	}
 
 	/**
-	 * Returns the index of the color in haystack with the smallest absolute
-	 * difference from needle, or -1 if BACKGROUND_COLOR is closer to needle.
-	 * @param needle
-	 * @param haystack
-	 * @return
+	 * Reads the puzzle from the given image of a region of the Strata
+	 * window's client area.
+	 * @param image an image of the region
+	 * @param region the region, in window coordinates
+	 * @param geometry the board's geometry
+	 * @param classifier classifies the puzzle's colors
+	 * @return the puzzle
+	 * @throws IllegalStateException if any cell's color is ambiguous
 	 */
-	private static byte indexOfClosestColor(Color needle, Color[] haystack) {
-		byte bestIdx = 0;
-		double bestDiff = perceptualDifference(needle, haystack[0]);
-		for (byte i = 1; i < haystack.length; ++i) {
-			double d = perceptualDifference(needle, haystack[i]);
-			if (d < bestDiff) {
-				bestIdx = i;
-				bestDiff = d;
+	static Puzzle readPuzzle(BufferedImage image, Rectangle region, BoardGeometry geometry, PaletteClassifier classifier) {
+		CellSampler sampler = new CellSampler(image);
+		int sideLength = geometry.sideLength();
+		byte[] cells = new byte[sideLength * sideLength];
+		List<String> ambiguous = new ArrayList<>();
+		for (int row = 0, i = 0; row < sideLength; ++row)
+			for (int col = 0; col < sideLength; ++col, ++i) {
+				int rgb = sample(sampler, region, geometry.cell(row, col));
+				cells[i] = classifier.classify(rgb);
+				if (cells[i] == PaletteClassifier.AMBIGUOUS)
+					ambiguous.add(String.format("(%d, %d) = #%06X", row, col, rgb));
 			}
-		}
-		if (perceptualDifference(needle, BACKGROUND_COLOR) < bestDiff)
-			return -1;
-		return bestIdx;
+		if (!ambiguous.isEmpty())
+			throw new IllegalStateException("ambiguous cells: " + ambiguous);
+		return Puzzle.fromRowMajor(cells, sideLength, sideLength);
+	}
+
+	/**
+	 * Samples the given point (in window coordinates) of an image of the given
+	 * region.
+	 */
+	private static int sample(CellSampler sampler, Rectangle region, int[] xy) {
+		assert xy.length == 2;
+		return sampler.average(xy[0] - region.x, xy[1] - region.y, SAMPLE_RADIUS);
 	}
 
 	/**
-	 * Returns a measure of the perceptual difference between the given colors
-	 * (lower values are less different).  The metric used is from
-	 * http://www.compuphase.com/cmetric.htm.
-	 * @param a a color
-	 * @param b a color
-	 * @return the perceptual difference between the two colors (lower is less
-	 * different)
+	 * Stops this effector's click thread.
 	 */
-	private static double perceptualDifference(Color a, Color b) {
-		double meanRed = ((double)a.getRed() + b.getRed())/2;
-		int dR = a.getRed() - b.getRed();
-		int dG = a.getGreen() - b.getGreen();
-		int dB = a.getBlue() - b.getBlue();
-		return Math.sqrt((2 + meanRed/256)*dR*dR + 4*dG*dG + (2 + (255 - meanRed)/256)*dB*dB);
+	@Override
+	public void close() {
+		clicks.close();
 	}
 
 	public static void main(String[] args) throws AWTException, IOException, InterruptedException {
-		Effector e = new Effector();
-		e.playPuzzle(6, 6);
+		MetricsRecorder metrics = new MetricsRecorder();
+		Files.createDirectories(SOLUTION_STORE.getParent());
+		try (Effector e = new Effector(); SolutionStore solutions = SolutionStore.open(SOLUTION_STORE)) {
+			e.setMetrics(metrics);
+			e.setSolutionStore(solutions);
+			e.playPuzzle(6, 6);
+		}
+		System.out.print(metrics);
 	}
 }
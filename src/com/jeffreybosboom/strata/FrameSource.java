@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * A source of images of the Strata window, live or recorded.
+ */
+public interface FrameSource {
+	/**
+	 * Returns the size of the frames, as a rectangle at the origin.
+	 * @return the frame bounds
+	 */
+	Rectangle bounds();
+
+	/**
+	 * Captures the given region of the current frame.
+	 * @param region the region to capture, in window coordinates
+	 * @return an image of the region
+	 */
+	BufferedImage capture(Rectangle region);
+
+	/**
+	 * Captures the whole current frame.
+	 * @return an image of the frame
+	 */
+	default BufferedImage capture() {
+		return capture(bounds());
+	}
+}
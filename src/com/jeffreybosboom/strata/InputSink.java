@@ -0,0 +1,32 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+/**
+ * Delivers mouse input to the Strata window, live or simulated.
+ */
+public interface InputSink {
+	/**
+	 * Left-clicks at the given point, returning once the click is delivered.
+	 * @param x the x coordinate, in window coordinates
+	 * @param y the y coordinate, in window coordinates
+	 */
+	void click(int x, int y);
+}
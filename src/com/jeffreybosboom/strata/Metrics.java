@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+/**
+ * Receives counts and phase timings from solvers and the effector.  Sources
+ * accumulate counts locally and report them once per puzzle, so
+ * implementations see a few calls per puzzle, not one per search state, and
+ * may be called from any thread.  {@link #NONE} discards everything and is
+ * the default everywhere.
+ */
+public interface Metrics {
+	enum Counter {
+		/**
+		 * Peeling steps: one per ribbon peeled, plus one for the dead end of
+		 * an unsolvable puzzle.
+		 */
+		STATES_VISITED,
+		/**
+		 * Candidate ribbons taken from the solver's queue of uniform ribbons.
+		 */
+		CANDIDATE_SCANS,
+		/**
+		 * Solves that reached a dead end, proving the puzzle unsolvable.
+		 * Peeling never backtracks, so this is at most one per solve.
+		 */
+		BACKTRACKS,
+		/**
+		 * Clicks dispatched to the input sink, including color selector and
+		 * next button clicks.
+		 */
+		CLICKS,
+		/**
+		 * Puzzles answered by a {@link SolutionStore} without solving.
+		 */
+		STORE_HITS,
+	}
+
+	enum Phase {
+		/**
+		 * Taking a screenshot.
+		 */
+		CAPTURE,
+		/**
+		 * Turning a screenshot into a Puzzle.
+		 */
+		CLASSIFY,
+		/**
+		 * Solving a Puzzle, or looking it up in a {@link SolutionStore}
+		 * (counted in {@link Counter#STORE_HITS}).
+		 */
+		SOLVE,
+		/**
+		 * Dispatching one click to the input sink, not including the wait
+		 * before the next click.
+		 */
+		CLICK,
+		/**
+		 * Waiting for animations to finish.
+		 */
+		SETTLE,
+	}
+
+	Metrics NONE = new Metrics() {
+		@Override
+		public void count(Counter counter, long n) {}
+		@Override
+		public void time(Phase phase, long nanos) {}
+	};
+
+	/**
+	 * Adds the given amount to the given counter.
+	 * @param counter the counter
+	 * @param n the amount to add
+	 */
+	void count(Counter counter, long n);
+
+	/**
+	 * Records one occurrence of the given phase, which took the given time
+	 * as measured by {@link System#nanoTime()}.
+	 * @param phase the phase
+	 * @param nanos the elapsed time, in nanoseconds
+	 */
+	void time(Phase phase, long nanos);
+}
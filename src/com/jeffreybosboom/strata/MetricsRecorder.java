@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates {@link Metrics} in striped counters, so many threads can report
+ * without contending.  Reads are not atomic with respect to concurrent
+ * updates, which is fine for monitoring.
+ */
+public final class MetricsRecorder implements Metrics {
+	private final LongAdder[] counters = adders(Counter.values().length);
+	private final LongAdder[] phaseCounts = adders(Phase.values().length),
+			phaseNanos = adders(Phase.values().length);
+	private final LongAccumulator[] phaseMax = new LongAccumulator[Phase.values().length];
+	public MetricsRecorder() {
+		for (int i = 0; i < phaseMax.length; ++i)
+			phaseMax[i] = new LongAccumulator(Math::max, 0);
+	}
+
+	private static LongAdder[] adders(int n) {
+		LongAdder[] adders = new LongAdder[n];
+		for (int i = 0; i < n; ++i)
+			adders[i] = new LongAdder();
+		return adders;
+	}
+
+	@Override
+	public void count(Counter counter, long n) {
+		counters[counter.ordinal()].add(n);
+	}
+
+	@Override
+	public void time(Phase phase, long nanos) {
+		phaseCounts[phase.ordinal()].increment();
+		phaseNanos[phase.ordinal()].add(nanos);
+		phaseMax[phase.ordinal()].accumulate(nanos);
+	}
+
+	public long count(Counter counter) {
+		return counters[counter.ordinal()].sum();
+	}
+
+	/**
+	 * Returns the number of times the given phase was recorded.
+	 * @param phase the phase
+	 * @return the number of times the phase was recorded
+	 */
+	public long count(Phase phase) {
+		return phaseCounts[phase.ordinal()].sum();
+	}
+
+	public long totalNanos(Phase phase) {
+		return phaseNanos[phase.ordinal()].sum();
+	}
+
+	public long maxNanos(Phase phase) {
+		return phaseMax[phase.ordinal()].get();
+	}
+
+	public void reset() {
+		for (LongAdder a : counters)
+			a.reset();
+		for (int i = 0; i < phaseMax.length; ++i) {
+			phaseCounts[i].reset();
+			phaseNanos[i].reset();
+			phaseMax[i].reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Counter c : Counter.values())
+			sb.append(String.format("%s: %d%n", c, count(c)));
+		for (Phase p : Phase.values()) {
+			long n = count(p);
+			sb.append(String.format("%s: %d, mean %d us, max %d us%n", p, n,
+					n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos(p) / n),
+					TimeUnit.NANOSECONDS.toMicros(maxNanos(p))));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Classifies pixel colors against a fixed palette plus a background color
+ * using a lookup table over 18-bit quantized RGB, so each classification is
+ * one array load.  Each table entry also holds the margin between the best
+ * and second-best match; pixels whose margin is too small are checked exactly
+ * and, if still too close to call, reported as {@link #AMBIGUOUS} rather
+ * than guessed.
+ *
+ * Building the table takes a few milliseconds, so build one per palette (per
+ * wave) and reuse it.  PaletteClassifier is immutable and thread-safe.
+ */
+public final class PaletteClassifier {
+	/**
+	 * Returned for pixels too close to two colors to classify.
+	 */
+	public static final byte AMBIGUOUS = -2;
+	private static final int BITS = 6, SHIFT = 8 - BITS;
+	/**
+	 * The most a margin can change within one quantization bucket: each of
+	 * the two differences can move by at most the difference across half a
+	 * bucket (2 levels) in each channel, sqrt(3*2*2 + 4*2*2 + 3*2*2) < 6.5.
+	 */
+	private static final double QUANTIZATION_ERROR = 13;
+	private final int[] palette;
+	private final int background;
+	private final double minMargin;
+	/**
+	 * Indexed by quantized color: the low byte is the palette index (or -1
+	 * for the background), and the high byte is the margin, rounded down and
+	 * capped at 255.
+	 */
+	private final short[] table = new short[1 << (3 * BITS)];
+	/**
+	 * Creates a classifier for the given palette.
+	 * @param palette the colors, as 0xRRGGBB, indexed by color number
+	 * @param background the background color (classified as -1)
+	 * @param minMargin the least difference between a pixel's best and
+	 * second-best match for it to be classified
+	 */
+	public PaletteClassifier(int[] palette, int background, double minMargin) {
+		checkArgument(palette.length > 0 && palette.length < 127, "palette size %s", palette.length);
+		checkArgument(minMargin >= 0, "minMargin: %s", minMargin);
+		this.palette = palette.clone();
+		this.background = background;
+		this.minMargin = minMargin;
+		int half = 1 << (SHIFT - 1);
+		for (int q = 0; q < table.length; ++q) {
+			int r = ((q >>> (2 * BITS)) << SHIFT) + half,
+					g = (((q >>> BITS) & ((1 << BITS) - 1)) << SHIFT) + half,
+					b = ((q & ((1 << BITS) - 1)) << SHIFT) + half;
+			long best = match((r << 16) | (g << 8) | b);
+			table[q] = (short)((int)Math.min(255, marginOf(best)) << 8 | (indexOf(best) & 0xFF));
+		}
+	}
+
+	/**
+	 * Returns the number of colors in the palette, not counting the
+	 * background.
+	 * @return the number of colors
+	 */
+	public int colors() {
+		return palette.length;
+	}
+
+	/**
+	 * Returns the given palette color.
+	 * @param index the color's index
+	 * @return the color, as 0xRRGGBB
+	 */
+	public int color(int index) {
+		return palette[index];
+	}
+
+	/**
+	 * Returns the palette index of the given color, -1 if it is the
+	 * background, or {@link #AMBIGUOUS}.
+	 * @param rgb a color, as 0xRRGGBB
+	 * @return the palette index, -1 or AMBIGUOUS
+	 */
+	public byte classify(int rgb) {
+		short entry = table[quantize(rgb)];
+		if ((entry >>> 8 & 0xFF) >= minMargin + QUANTIZATION_ERROR)
+			return (byte)entry;
+		//too close to call from the bucket center; check exactly
+		long exact = match(rgb);
+		return marginOf(exact) >= minMargin ? indexOf(exact) : AMBIGUOUS;
+	}
+
+	/**
+	 * Returns the difference between the given color's best and second-best
+	 * matches, as recorded in the table.
+	 * @param rgb a color, as 0xRRGGBB
+	 * @return the approximate margin, capped at 255
+	 */
+	public int margin(int rgb) {
+		return table[quantize(rgb)] >>> 8 & 0xFF;
+	}
+
+	private static int quantize(int rgb) {
+		return ((rgb >>> (16 + SHIFT)) & 0x3F) << (2 * BITS)
+				| ((rgb >>> (8 + SHIFT)) & 0x3F) << BITS
+				| (rgb >>> SHIFT) & 0x3F;
+	}
+
+	/**
+	 * Finds the closest palette color (or background) to the given color,
+	 * returning its index in the low bits and the margin to the runner-up
+	 * (as float bits) in the high bits.
+	 */
+	private long match(int rgb) {
+		double best = perceptualDifference(rgb, background), second = Double.POSITIVE_INFINITY;
+		int bestIndex = -1;
+		for (int i = 0; i < palette.length; ++i) {
+			double d = perceptualDifference(rgb, palette[i]);
+			if (d < best) {
+				second = best;
+				best = d;
+				bestIndex = i;
+			} else if (d < second)
+				second = d;
+		}
+		return (long)Float.floatToIntBits((float)(second - best)) << 32 | (bestIndex & 0xFFFFFFFFL);
+	}
+
+	private static byte indexOf(long match) {
+		return (byte)(int)match;
+	}
+
+	private static float marginOf(long match) {
+		return Float.intBitsToFloat((int)(match >>> 32));
+	}
+
+	/**
+	 * Returns a measure of the perceptual difference between the given colors
+	 * (lower values are less different).  The metric used is from
+	 * http://www.compuphase.com/cmetric.htm.
+	 * @param a a color, as 0xRRGGBB
+	 * @param b a color, as 0xRRGGBB
+	 * @return the perceptual difference between the two colors (lower is less
+	 * different)
+	 */
+	static double perceptualDifference(int a, int b) {
+		int aRed = (a >>> 16) & 0xFF, bRed = (b >>> 16) & 0xFF;
+		double meanRed = ((double)aRed + bRed)/2;
+		int dR = aRed - bRed;
+		int dG = ((a >>> 8) & 0xFF) - ((b >>> 8) & 0xFF);
+		int dB = (a & 0xFF) - (b & 0xFF);
+		return Math.sqrt((2 + meanRed/256)*dR*dR + 4*dG*dG + (2 + (255 - meanRed)/256)*dB*dB);
+	}
+}
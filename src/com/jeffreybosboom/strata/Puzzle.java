@@ -21,6 +21,7 @@ package com.jeffreybosboom.strata;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkElementIndex;
 import java.util.Arrays;
+import java.util.Collection;
 
 /**
  * A Strata puzzle board. Puzzle boards are rotated 45 degrees clockwise, so the
@@ -30,23 +31,84 @@ import java.util.Arrays;
  * @since 8/30/2014
  */
 public final class Puzzle {
+	private static final int[] NO_LINES = {};
+	private static final Puzzle EMPTY = new Puzzle(new byte[0], false, NO_LINES, NO_LINES, 0, 0);
 	/**
-	 * The board itself.  Colors are integers from 0 to N-1, while unconstrained
-	 * cells are -1.  These arrays may be shared with other Puzzle objects, so
-	 * should not be modified.
+	 * The board itself, shared between views of the same board.  Colors are
+	 * integers from 0 to N-1, while unconstrained cells are -1.  If packed,
+	 * each byte holds two cells, each stored as color+1 in a nibble (low nibble
+	 * first); otherwise each byte holds one cell.  This array is shared with
+	 * other Puzzle objects, so should not be modified.
 	 */
-	private final byte[][] board;
-	private Puzzle(byte[][] board) {
-		checkArgument(Arrays.stream(board).map(x -> x.length).distinct().count() <= 1, "board not rectangular");
+	private final byte[] cells;
+	private final boolean packed;
+	/**
+	 * Maps the rows and columns of this view to lines of the underlying board.
+	 * The cell at (row, col) is at index
+	 * {@code rowMap[row] * rowStride + colMap[col] * colStride}.  Removing a
+	 * row or column copies one of these maps; transposing swaps them.
+	 */
+	private final int[] rowMap, colMap;
+	private final int rowStride, colStride;
+	private Puzzle(byte[] cells, boolean packed, int[] rowMap, int[] colMap, int rowStride, int colStride) {
 		//TODO: check colors are packed into 0..N-1.
-		this.board = board;
+		this.cells = cells;
+		this.packed = packed;
+		this.rowMap = rowMap;
+		this.colMap = colMap;
+		this.rowStride = rowStride;
+		this.colStride = colStride;
+	}
+
+	/**
+	 * Creates a Puzzle over the given row-major cells, nibble-packing them if
+	 * all colors fit.  Colors must be at least -1 (unconstrained), as packing
+	 * would carry lower colors into the neighboring nibble.  The array is not
+	 * retained.
+	 */
+	static Puzzle fromRowMajor(byte[] board, int rows, int cols) {
+		checkArgument(board.length == rows * cols, "%s cells for %s x %s", board.length, rows, cols);
+		if (rows == 0 || cols == 0) return EMPTY;
+		boolean packable = true;
+		for (byte b : board) {
+			checkArgument(b >= -1, "bad color: %s", b);
+			packable &= b < 15;
+		}
+		byte[] cells;
+		if (packable) {
+			cells = new byte[(board.length + 1) >>> 1];
+			for (int i = 0; i < board.length; ++i)
+				cells[i >>> 1] |= (board[i] + 1) << ((i & 1) << 2);
+		} else
+			cells = board.clone();
+		return new Puzzle(cells, packable, identity(rows), identity(cols), cols, 1);
+	}
+
+	/**
+	 * Creates a Puzzle over the given nibble-packed cells (as color+1, low
+	 * nibble first, in row-major order).  The array is retained, so must not
+	 * be modified.
+	 */
+	static Puzzle fromPacked(byte[] packed, int rows, int cols) {
+		checkArgument(packed.length == (rows * cols + 1) >>> 1, "%s bytes for %s x %s", packed.length, rows, cols);
+		if (rows == 0 || cols == 0) return EMPTY;
+		return new Puzzle(packed, true, identity(rows), identity(cols), cols, 1);
+	}
+
+	private static int[] identity(int n) {
+		int[] map = new int[n];
+		for (int i = 0; i < n; ++i)
+			map[i] = i;
+		return map;
 	}
 
 	public static Puzzle fromArray(byte[][] board) {
-		byte[][] a = new byte[board.length][];
-		for (int i = 0; i < board.length; ++i)
-			a[i] = board[i].clone();
-		return new Puzzle(a);
+		checkArgument(Arrays.stream(board).map(x -> x.length).distinct().count() <= 1, "board not rectangular");
+		int rows = board.length, cols = rows == 0 ? 0 : board[0].length;
+		byte[] a = new byte[rows * cols];
+		for (int i = 0; i < rows; ++i)
+			System.arraycopy(board[i], 0, a, i * cols, cols);
+		return fromRowMajor(a, rows, cols);
 	}
 
 	public static Puzzle fromString(String str) {
@@ -57,15 +119,15 @@ public final class Puzzle {
 		for (int i = 0; i < rows.length; ++i)
 			for (int j = 0; j < rows[0].length(); ++j)
 				board[i][j] = (byte)(rows[i].charAt(j) == ' ' ? -1 : Character.digit(rows[i].charAt(j), 10));
-		return new Puzzle(board);
+		return fromArray(board);
 	}
 
-	public byte rows() {
-		return (byte)board.length;
+	public int rows() {
+		return rowMap.length;
 	}
 
-	public byte cols() {
-		return rows() == 0 ? 0 : (byte)board[0].length;
+	public int cols() {
+		return rows() == 0 ? 0 : colMap.length;
 	}
 
 	public boolean isEmpty() {
@@ -75,17 +137,50 @@ public final class Puzzle {
 	public byte color(int row, int col) {
 		checkElementIndex(row, rows());
 		checkElementIndex(col, cols());
-		return board[row][col];
+		return cell(rowMap[row] * rowStride + colMap[col] * colStride);
+	}
+
+	private byte cell(int index) {
+		if (!packed) return cells[index];
+		return (byte)(((cells[index >>> 1] >>> ((index & 1) << 2)) & 0xF) - 1);
+	}
+
+	/**
+	 * Returns this puzzle's cells in row-major order, for solvers that want to
+	 * index them directly.
+	 * @return a new array of this puzzle's cells
+	 */
+	byte[] toRowMajor() {
+		byte[] retval = new byte[rows() * cols()];
+		for (int row = 0, i = 0; row < rows(); ++row) {
+			int rowBase = rowMap[row] * rowStride;
+			for (int col = 0; col < cols(); ++col)
+				retval[i++] = cell(rowBase + colMap[col] * colStride);
+		}
+		return retval;
+	}
+
+	/**
+	 * Returns a copy of this puzzle with the given cells recolored.  If a cell
+	 * is edited more than once, the last edit wins.
+	 * @param edits the edits
+	 * @return the edited puzzle
+	 */
+	public Puzzle edit(Collection<CellEdit> edits) {
+		byte[] cells = toRowMajor();
+		for (CellEdit e : edits) {
+			checkElementIndex(e.row(), rows());
+			checkElementIndex(e.col(), cols());
+			cells[e.row() * cols() + e.col()] = e.color();
+		}
+		return fromRowMajor(cells, rows(), cols());
 	}
 
 	public Puzzle withoutRow(int row) {
 		checkElementIndex(row, rows());
-		//we can share the common rows
-		byte[][] newBoard = new byte[rows()-1][];
-		for (int idx = 0, i = 0; i < rows(); ++i)
-			if (i != row)
-				newBoard[idx++] = board[i];
-		Puzzle puzzle = new Puzzle(newBoard);
+		if (rows()-1 == 0)
+			return EMPTY;
+		Puzzle puzzle = new Puzzle(cells, packed, without(rowMap, row), colMap, rowStride, colStride);
 		assert puzzle.rows() == rows() - 1;
 		return puzzle;
 	}
@@ -93,17 +188,29 @@ public final class Puzzle {
 	public Puzzle withoutCol(int col) {
 		checkElementIndex(col, cols());
 		if (cols()-1 == 0)
-			return new Puzzle(new byte[0][0]);
-		byte[][] newBoard = new byte[rows()][cols()-1];
-		for (int i = 0; i < rows(); ++i)
-			for (int idx = 0, j = 0; j < cols(); ++j)
-				if (j != col)
-					newBoard[i][idx++] = color(i, j);
-		Puzzle puzzle = new Puzzle(newBoard);
+			return EMPTY;
+		Puzzle puzzle = new Puzzle(cells, packed, rowMap, without(colMap, col), rowStride, colStride);
 		assert puzzle.cols() == cols() - 1;
 		return puzzle;
 	}
 
+	private static int[] without(int[] map, int index) {
+		int[] retval = new int[map.length - 1];
+		System.arraycopy(map, 0, retval, 0, index);
+		System.arraycopy(map, index + 1, retval, index, retval.length - index);
+		return retval;
+	}
+
+	/**
+	 * Returns the transpose of this puzzle, whose rows are this puzzle's
+	 * columns and vice versa.  The returned puzzle shares this puzzle's cells.
+	 * @return the transpose of this puzzle
+	 */
+	public Puzzle transpose() {
+		if (isEmpty()) return EMPTY;
+		return new Puzzle(cells, packed, colMap, rowMap, colStride, rowStride);
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (obj == null)
@@ -111,20 +218,35 @@ public final class Puzzle {
 		if (getClass() != obj.getClass())
 			return false;
 		final Puzzle other = (Puzzle)obj;
-		if (!Arrays.deepEquals(this.board, other.board))
+		if (this.rows() != other.rows() || this.cols() != other.cols())
 			return false;
+		for (int row = 0; row < rows(); ++row)
+			for (int col = 0; col < cols(); ++col)
+				if (this.color(row, col) != other.color(row, col))
+					return false;
 		return true;
 	}
 
 	@Override
 	public int hashCode() {
 		int hash = 7;
-		hash = 13 * hash + Arrays.deepHashCode(this.board);
+		hash = 13 * hash + Arrays.hashCode(toRowMajor());
+		hash = 13 * hash + cols();
 		return hash;
 	}
 
 	@Override
 	public String toString() {
-		return Arrays.deepToString(board);
+		StringBuilder sb = new StringBuilder("[");
+		for (int row = 0; row < rows(); ++row) {
+			if (row > 0) sb.append(", ");
+			sb.append('[');
+			for (int col = 0; col < cols(); ++col) {
+				if (col > 0) sb.append(", ");
+				sb.append(color(row, col));
+			}
+			sb.append(']');
+		}
+		return sb.append(']').toString();
 	}
 }
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import java.util.SplittableRandom;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Generates random puzzles by replaying random ribbon paint orders, so every
+ * puzzle is solvable unless deliberately perturbed.  Puzzle i of a generator
+ * depends only on the generator's settings and i, so streams are
+ * reproducible even when generated in parallel, and any single puzzle can be
+ * regenerated from its index.
+ */
+public final class PuzzleGenerator {
+	/**
+	 * The number of single-cell perturbations to try before planting a
+	 * conflict.
+	 */
+	private static final int PERTURBATION_TRIES = 32;
+	private final long seed;
+	private final int minSide, maxSide, minColors, maxColors;
+	private final double unconstrainedFraction, unsolvableFraction;
+	private PuzzleGenerator(Builder builder) {
+		this.seed = builder.seed;
+		this.minSide = builder.minSide;
+		this.maxSide = builder.maxSide;
+		this.minColors = builder.minColors;
+		this.maxColors = builder.maxColors;
+		this.unconstrainedFraction = builder.unconstrainedFraction;
+		this.unsolvableFraction = builder.unsolvableFraction;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static final class Builder {
+		private long seed = 0;
+		private int minSide = 3, maxSide = 6, minColors = 2, maxColors = 6;
+		private double unconstrainedFraction = 0, unsolvableFraction = 0;
+		private Builder() {}
+
+		public Builder seed(long seed) {
+			this.seed = seed;
+			return this;
+		}
+
+		/**
+		 * Sets the range of side lengths (inclusive).  Puzzles are square.
+		 */
+		public Builder sideLengths(int min, int max) {
+			checkArgument(1 <= min && min <= max, "bad side lengths: %s-%s", min, max);
+			this.minSide = min;
+			this.maxSide = max;
+			return this;
+		}
+
+		/**
+		 * Sets the range of color counts (inclusive).
+		 */
+		public Builder colors(int min, int max) {
+			checkArgument(1 <= min && min <= max && max <= Byte.MAX_VALUE, "bad colors: %s-%s", min, max);
+			this.minColors = min;
+			this.maxColors = max;
+			return this;
+		}
+
+		/**
+		 * Sets the probability that each cell is unconstrained (-1).
+		 */
+		public Builder unconstrainedFraction(double fraction) {
+			checkArgument(0 <= fraction && fraction <= 1, "bad fraction: %s", fraction);
+			this.unconstrainedFraction = fraction;
+			return this;
+		}
+
+		/**
+		 * Sets the probability that each puzzle is perturbed to be unsolvable.
+		 * Puzzles too small or with too few colors to be made unsolvable are
+		 * left solvable.
+		 */
+		public Builder unsolvableFraction(double fraction) {
+			checkArgument(0 <= fraction && fraction <= 1, "bad fraction: %s", fraction);
+			this.unsolvableFraction = fraction;
+			return this;
+		}
+
+		public PuzzleGenerator build() {
+			return new PuzzleGenerator(this);
+		}
+	}
+
+	/**
+	 * Returns the puzzle with the given index.
+	 * @param index the index of the puzzle
+	 * @return the puzzle with the given index
+	 */
+	public Puzzle generate(long index) {
+		//golden-ratio increment, as in SplittableRandom, so nearby indices and
+		//seeds give unrelated streams
+		SplittableRandom rng = new SplittableRandom(seed ^ (index * 0x9E3779B97F4A7C15L));
+		int side = rng.nextInt(minSide, maxSide + 1);
+		int colors = rng.nextInt(minColors, maxColors + 1);
+		byte[] cells = paint(rng, side, colors);
+		if (rng.nextDouble() < unsolvableFraction && side >= 2 && colors >= 2)
+			perturb(rng, cells, side, colors);
+		return Puzzle.fromRowMajor(cells, side, side);
+	}
+
+	/**
+	 * Returns an infinite sequential stream of puzzles, starting at index 0.
+	 * The stream may be made parallel.
+	 * @return a stream of puzzles
+	 */
+	public Stream<Puzzle> stream() {
+		return LongStream.range(0, Long.MAX_VALUE).mapToObj(this::generate);
+	}
+
+	/**
+	 * Paints every ribbon of a side-by-side board with a random color in a
+	 * random order, then unconstrains random cells.  Each cell shows the color
+	 * of whichever of its row and column was painted later.
+	 */
+	private byte[] paint(SplittableRandom rng, int side, int colors) {
+		int[] order = new int[2 * side];
+		for (int i = 0; i < order.length; ++i) {
+			int j = rng.nextInt(i + 1);
+			order[i] = order[j];
+			order[j] = i;
+		}
+		int[] paintedAt = new int[2 * side];
+		for (int i = 0; i < order.length; ++i)
+			paintedAt[order[i]] = i;
+		byte[] ribbonColors = new byte[2 * side];
+		for (int i = 0; i < ribbonColors.length; ++i)
+			ribbonColors[i] = (byte)rng.nextInt(colors);
+
+		byte[] cells = new byte[side * side];
+		for (int row = 0, i = 0; row < side; ++row)
+			for (int col = 0; col < side; ++col, ++i) {
+				int top = paintedAt[row] > paintedAt[side + col] ? row : side + col;
+				cells[i] = unconstrainedFraction > 0 && rng.nextDouble() < unconstrainedFraction
+						? -1 : ribbonColors[top];
+			}
+		return cells;
+	}
+
+	/**
+	 * Recolors single cells until the board is unsolvable, falling back to
+	 * planting a two-color checkerboard in one corner, which can never be
+	 * peeled.
+	 */
+	private static void perturb(SplittableRandom rng, byte[] cells, int side, int colors) {
+		Solver solver = new Solver();
+		for (int i = 0; i < PERTURBATION_TRIES; ++i) {
+			int cell = rng.nextInt(cells.length);
+			byte old = cells[cell];
+			cells[cell] = (byte)rng.nextInt(colors);
+			if (!solver.solve(Puzzle.fromRowMajor(cells, side, side)).isPresent())
+				return;
+			cells[cell] = old;
+		}
+		cells[0] = cells[side + 1] = 0;
+		cells[1] = cells[side] = 1;
+	}
+}
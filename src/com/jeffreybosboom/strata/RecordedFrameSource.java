@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+
+/**
+ * Plays back a recorded sequence of frames at a fixed frame interval,
+ * repeating the last frame once the sequence is exhausted.  The clock starts
+ * at the first capture.  Frames advance with time, not per capture, so a
+ * detector polling several regions sees the same frame in all of them, and
+ * polls slower than the frame rate skip frames as they would live.  Useful
+ * for testing screen readers and detectors offline.
+ */
+public final class RecordedFrameSource implements FrameSource {
+	private final ImmutableList<BufferedImage> frames;
+	private final long frameNanos;
+	private final Ticker ticker;
+	/**
+	 * The ticker's reading at the first capture, or -1 before it.
+	 */
+	private long start = -1;
+	/**
+	 * Creates a frame source.
+	 * @param frames the frames, in order
+	 * @param frameInterval the time each frame is shown
+	 * @param unit the unit of frameInterval
+	 */
+	public RecordedFrameSource(List<BufferedImage> frames, long frameInterval, TimeUnit unit) {
+		this(frames, frameInterval, unit, Ticker.systemTicker());
+	}
+
+	RecordedFrameSource(List<BufferedImage> frames, long frameInterval, TimeUnit unit, Ticker ticker) {
+		checkArgument(!frames.isEmpty(), "no frames");
+		checkArgument(frameInterval > 0, "frameInterval: %s", frameInterval);
+		this.frames = ImmutableList.copyOf(frames);
+		this.frameNanos = unit.toNanos(frameInterval);
+		this.ticker = checkNotNull(ticker);
+		Rectangle bounds = bounds();
+		for (BufferedImage f : frames)
+			checkArgument(f.getWidth() == bounds.width && f.getHeight() == bounds.height,
+					"frame sizes differ: %sx%s vs %sx%s", f.getWidth(), f.getHeight(), bounds.width, bounds.height);
+	}
+
+	/**
+	 * Loads the PNG files in the given directory, in name order.
+	 * @param directory the directory
+	 * @param frameInterval the time each frame is shown
+	 * @param unit the unit of frameInterval
+	 * @return a frame source
+	 * @throws IOException if a file can't be read
+	 */
+	public static RecordedFrameSource fromDirectory(Path directory, long frameInterval, TimeUnit unit) throws IOException {
+		List<Path> paths = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.png")) {
+			stream.forEach(paths::add);
+		}
+		Collections.sort(paths);
+		List<BufferedImage> frames = new ArrayList<>(paths.size());
+		for (Path p : paths) {
+			BufferedImage image = ImageIO.read(p.toFile());
+			if (image == null)
+				throw new IOException("can't read " + p);
+			frames.add(image);
+		}
+		return new RecordedFrameSource(frames, frameInterval, unit);
+	}
+
+	@Override
+	public Rectangle bounds() {
+		return new Rectangle(0, 0, frames.get(0).getWidth(), frames.get(0).getHeight());
+	}
+
+	@Override
+	public synchronized BufferedImage capture(Rectangle region) {
+		if (start == -1)
+			start = ticker.read();
+		return frames.get(position()).getSubimage(region.x, region.y, region.width, region.height);
+	}
+
+	/**
+	 * Returns the index of the frame being shown now.
+	 * @return the current frame's index
+	 */
+	public synchronized int position() {
+		if (start == -1) return 0;
+		return (int)Math.min((ticker.read() - start) / frameNanos, frames.size() - 1);
+	}
+}
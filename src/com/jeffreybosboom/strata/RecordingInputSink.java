@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records clicks and when they happened, optionally passing them on to
+ * another sink, so click timing can be tested headless.
+ *
+ * RecordingInputSink is thread-safe.
+ */
+public final class RecordingInputSink implements InputSink {
+	/**
+	 * A recorded click.
+	 */
+	public static final class Click {
+		private final int x, y;
+		private final long nanos;
+		private Click(int x, int y, long nanos) {
+			this.x = x;
+			this.y = y;
+			this.nanos = nanos;
+		}
+
+		public int x() {
+			return x;
+		}
+
+		public int y() {
+			return y;
+		}
+
+		/**
+		 * Returns when this click happened, as read from the recording
+		 * sink's ticker.
+		 * @return the click's time, in nanoseconds
+		 */
+		public long nanos() {
+			return nanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("(%d, %d) at %d ns", x, y, nanos);
+		}
+	}
+
+	private final InputSink downstream;
+	private final Ticker ticker;
+	private final List<Click> clicks = new ArrayList<>();
+	public RecordingInputSink() {
+		this((x, y) -> {}, Ticker.systemTicker());
+	}
+
+	/**
+	 * Creates a recording sink.
+	 * @param downstream receives each click after it is recorded
+	 * @param ticker timestamps the clicks
+	 */
+	public RecordingInputSink(InputSink downstream, Ticker ticker) {
+		this.downstream = checkNotNull(downstream);
+		this.ticker = checkNotNull(ticker);
+	}
+
+	@Override
+	public void click(int x, int y) {
+		synchronized (clicks) {
+			clicks.add(new Click(x, y, ticker.read()));
+		}
+		downstream.click(x, y);
+	}
+
+	/**
+	 * Returns the clicks recorded so far, in order.
+	 * @return the clicks recorded so far
+	 */
+	public ImmutableList<Click> clicks() {
+		synchronized (clicks) {
+			return ImmutableList.copyOf(clicks);
+		}
+	}
+
+	public void clear() {
+		synchronized (clicks) {
+			clicks.clear();
+		}
+	}
+}
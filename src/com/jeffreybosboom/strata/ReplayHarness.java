@@ -0,0 +1,301 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+import com.google.common.base.Ticker;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Plays waves of puzzles through an {@link Effector} against a
+ * {@link SimulatedStrata}, reporting the latency of each wave and of each
+ * phase (capture, classify, solve, click, settle), so the bot's end-to-end
+ * speed can be measured and regression-tested headless.  Each wave must solve
+ * every puzzle with exactly the clicks its solutions call for.  Puzzles are
+ * generated, or replayed from a recorded corpus.  Before playing, checks that
+ * calibration recovers the simulated board's layout and that the settle
+ * detector waits out a recorded animation.
+ *
+ * Usage: {@code ReplayHarness [-w waves] [-s side] [-c colors] [-l latency-ms]
+ * [-a animation-ms] [-S store] [corpus]}, where latency is the simulated
+ * delay before clicks take effect, animation is the duration of the
+ * simulated end-of-puzzle and next-puzzle animations, and store is a
+ * {@link SolutionStore} to solve through.  Corpus puzzles not of the given
+ * side length, with more than the given number of colors, or without a
+ * solution are skipped.
+ */
+public final class ReplayHarness {
+	private static final int WIDTH = 1024, HEIGHT = 768;
+	/**
+	 * The farthest, in pixels along either axis, a calibrated point may be
+	 * from the layout's.  Calibration is within 2 pixels on simulated boards.
+	 */
+	private static final int CALIBRATION_TOLERANCE = 3;
+	private ReplayHarness() {}
+
+	/**
+	 * Returns the geometry of a board in the simulated window, laid out like
+	 * the 1024x768 Strata window: the board's size is fixed, and the color
+	 * selectors are spaced evenly about the center.
+	 */
+	static BoardGeometry layout(int sideLength, int numColors) {
+		int[][] colorSelectors = new int[numColors][];
+		for (int i = 0; i < numColors; ++i)
+			colorSelectors[i] = new int[]{512 + 73 * (2 * i - (numColors - 1)) / 2, 740};
+		return new BoardGeometry(sideLength, 512, 327, 182.4 / sideLength, colorSelectors, new int[]{510, 622});
+	}
+
+	/**
+	 * Returns evenly-spaced hues, like Strata's palettes.
+	 */
+	static int[] palette(int numColors) {
+		int[] palette = new int[numColors];
+		for (int i = 0; i < numColors; ++i)
+			palette[i] = Color.HSBtoRGB((float)i / numColors, 0.7f, 0.8f) & 0xFFFFFF;
+		return palette;
+	}
+
+	/**
+	 * Checks that {@link BoardGeometry#calibrate} recovers the given geometry
+	 * from a simulated frame showing the given puzzle.
+	 */
+	static void checkCalibration(BoardGeometry geometry, int[] palette, Puzzle puzzle) {
+		SimulatedStrata game = new SimulatedStrata(geometry, palette, Effector.BACKGROUND_COLOR, WIDTH, HEIGHT,
+				Collections.singletonList(puzzle), 0, 0, TimeUnit.MILLISECONDS);
+		BoardGeometry calibrated = BoardGeometry.calibrate(game.capture(game.bounds()),
+				geometry.sideLength(), geometry.colors(), Effector.BACKGROUND_COLOR);
+		for (int i = 0; i < geometry.sideLength(); ++i) {
+			checkPoint("row selector " + i, geometry.rowSelector(i), calibrated.rowSelector(i));
+			checkPoint("column selector " + i, geometry.colSelector(i), calibrated.colSelector(i));
+			for (int j = 0; j < geometry.sideLength(); ++j)
+				checkPoint("cell " + i + ", " + j, geometry.cell(i, j), calibrated.cell(i, j));
+		}
+		for (int i = 0; i < geometry.colors(); ++i)
+			checkPoint("color selector " + i, geometry.colorSelector(i), calibrated.colorSelector(i));
+		checkPoint("next button", geometry.nextButton(), calibrated.nextButton());
+	}
+
+	private static void checkPoint(String what, int[] expected, int[] actual) {
+		if (Math.abs(expected[0] - actual[0]) > CALIBRATION_TOLERANCE || Math.abs(expected[1] - actual[1]) > CALIBRATION_TOLERANCE)
+			throw new IllegalStateException(String.format("calibrated %s at %s, expected %s",
+					what, Arrays.toString(actual), Arrays.toString(expected)));
+	}
+
+	/**
+	 * Checks that a {@link StabilityDetector} waits out an animation: plays
+	 * back a still board, a run of changing frames, and a final still board
+	 * through a {@link RecordedFrameSource}, and checks the detector settles
+	 * only once the final board is showing.
+	 */
+	static void checkSettle(BoardGeometry geometry, int[] palette, Puzzle puzzle) {
+		SimulatedStrata game = new SimulatedStrata(geometry, palette, Effector.BACKGROUND_COLOR, WIDTH, HEIGHT,
+				Collections.singletonList(puzzle), 0, 0, TimeUnit.MILLISECONDS);
+		Rectangle board = geometry.cellBounds();
+		List<BufferedImage> frames = new ArrayList<>();
+		for (int i = 0; i < 3; ++i)
+			frames.add(copy(game.capture(game.bounds()), board, -1));
+		for (int i = 0; i < 30; ++i)
+			frames.add(copy(game.capture(game.bounds()), board, 8 * i));
+		frames.add(copy(game.capture(game.bounds()), board, 0xFF));
+		RecordedFrameSource source = new RecordedFrameSource(frames, 16, TimeUnit.MILLISECONDS);
+		int[] next = geometry.nextButton();
+		StabilityDetector detector = new StabilityDetector(source,
+				Arrays.asList(board, new Rectangle(next[0] - 10, next[1] - 10, 20, 20)), 20, TimeUnit.MILLISECONDS, 3, 4);
+		if (!detector.awaitSettled(100, 2000, TimeUnit.MILLISECONDS) || source.position() != frames.size() - 1)
+			throw new IllegalStateException(String.format("settled on frame %d of %d", source.position(), frames.size()));
+	}
+
+	/**
+	 * Copies the given frame, filling the given region with the given gray
+	 * level unless it's negative.
+	 */
+	private static BufferedImage copy(BufferedImage frame, Rectangle region, int gray) {
+		BufferedImage copy = new BufferedImage(frame.getWidth(), frame.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = copy.createGraphics();
+		g.drawImage(frame, 0, 0, null);
+		if (gray >= 0) {
+			g.setColor(new Color(gray, gray, gray));
+			g.fill(region);
+		}
+		g.dispose();
+		return copy;
+	}
+
+	/**
+	 * Returns the clicks an {@link Effector} should make to play the given
+	 * wave: reading the palette, then for each puzzle, its optimized
+	 * solution's color and ribbon selectors and the next button.
+	 */
+	static List<int[]> expectedClicks(BoardGeometry geometry, List<Puzzle> wave, Function<Puzzle, Optional<Solution>> solver) {
+		List<int[]> clicks = new ArrayList<>();
+		clicks.add(geometry.colorSelector(1));
+		clicks.add(geometry.colorSelector(0));
+		for (Puzzle puzzle : wave) {
+			Solution solution = new ClickOptimizer().optimize(puzzle, solver.apply(puzzle).get());
+			byte currentColor = 0;
+			for (int i = 0; i < solution.size(); ++i) {
+				if (solution.color(i) != currentColor) {
+					currentColor = solution.color(i);
+					clicks.add(geometry.colorSelector(currentColor));
+				}
+				clicks.add(solution.isRow(i) ? geometry.rowSelector(solution.ribbonIndex(i)) : geometry.colSelector(solution.ribbonIndex(i)));
+			}
+			clicks.add(geometry.nextButton());
+		}
+		return clicks;
+	}
+
+	/**
+	 * Checks the recorded clicks match the expected clicks exactly.
+	 */
+	private static void checkClicks(int wave, List<int[]> expected, List<RecordingInputSink.Click> actual) {
+		for (int i = 0; i < Math.min(expected.size(), actual.size()); ++i)
+			if (expected.get(i)[0] != actual.get(i).x() || expected.get(i)[1] != actual.get(i).y())
+				throw new IllegalStateException(String.format("wave %d: click %d was %s, expected %s",
+						wave, i, actual.get(i), Arrays.toString(expected.get(i))));
+		if (expected.size() != actual.size())
+			throw new IllegalStateException(String.format("wave %d: %d clicks, expected %d", wave, actual.size(), expected.size()));
+	}
+
+	/**
+	 * Returns true if the given puzzle can be played on a board of the given
+	 * side length and number of colors: it has that side length, no more
+	 * colors, and a solution.
+	 */
+	private static boolean playable(Puzzle puzzle, int side, int colors, Solver solver) {
+		if (puzzle.rows() != side || puzzle.cols() != side)
+			return false;
+		for (byte b : puzzle.toRowMajor())
+			if (b >= colors)
+				return false;
+		return solver.solve(puzzle).isPresent();
+	}
+
+	private static void usage() {
+		System.err.println("usage: ReplayHarness [-w waves] [-s side] [-c colors] [-l latency-ms] [-a animation-ms] [-S store] [corpus]");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int waves = 3, side = 4, colors = 4;
+		long latency = 20, animation = 300;
+		Path storePath = null;
+		int first = 0;
+		for (; first < args.length && args[first].startsWith("-"); first += 2) {
+			if (first + 1 == args.length)
+				usage();
+			switch (args[first]) {
+				case "-w": waves = Integer.parseInt(args[first + 1]); break;
+				case "-s": side = Integer.parseInt(args[first + 1]); break;
+				case "-c": colors = Integer.parseInt(args[first + 1]); break;
+				case "-l": latency = Long.parseLong(args[first + 1]); break;
+				case "-a": animation = Long.parseLong(args[first + 1]); break;
+				case "-S": storePath = Paths.get(args[first + 1]); break;
+				default: usage();
+			}
+		}
+		if (args.length - first > 1)
+			usage();
+
+		int perWave = side * side;
+		List<Puzzle> puzzles = new ArrayList<>(waves * perWave);
+		if (first < args.length) {
+			Solver solver = new Solver();
+			int skipped = 0;
+			try (Corpus.Reader reader = Corpus.Reader.open(Paths.get(args[first]))) {
+				while (reader.hasNext() && puzzles.size() < waves * perWave) {
+					Puzzle puzzle = reader.next().puzzle();
+					if (playable(puzzle, side, colors, solver))
+						puzzles.add(puzzle);
+					else
+						++skipped;
+				}
+			}
+			if (skipped > 0)
+				System.err.format("skipped %d puzzles not %dx%d, with more than %d colors, or unsolvable%n", skipped, side, side, colors);
+			if (puzzles.size() < perWave) {
+				System.err.format("%s: %d playable puzzles, fewer than one wave of %d%n", args[first], puzzles.size(), perWave);
+				System.exit(1);
+			}
+			waves = puzzles.size() / perWave;
+		} else {
+			PuzzleGenerator generator = PuzzleGenerator.builder().sideLengths(side, side).colors(colors, colors).build();
+			for (int i = 0; i < waves * perWave; ++i)
+				puzzles.add(generator.generate(i));
+		}
+
+		BoardGeometry geometry = layout(side, colors);
+		int[] palette = palette(colors);
+		checkCalibration(geometry, palette, puzzles.get(0));
+		checkSettle(geometry, palette, puzzles.get(0));
+		MetricsRecorder metrics = new MetricsRecorder();
+		Path profiles = Files.createTempDirectory("stratabot-geometry");
+		SolutionStore store = storePath != null ? SolutionStore.open(storePath) : null;
+		try {
+			for (int w = 0; w < waves; ++w) {
+				SimulatedStrata game = new SimulatedStrata(geometry, palette, Effector.BACKGROUND_COLOR, WIDTH, HEIGHT,
+						puzzles.subList(w * perWave, (w + 1) * perWave), latency, animation, TimeUnit.MILLISECONDS);
+				RecordingInputSink input = new RecordingInputSink(game, Ticker.systemTicker());
+				long start = System.nanoTime();
+				try (Effector effector = new Effector(game, input, profiles)) {
+					effector.setMetrics(metrics);
+					effector.setSolutionStore(store);
+					effector.playWave(side, colors);
+				}
+				long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				if (game.solved() != perWave || game.strayClicks() != 0)
+					throw new IllegalStateException(String.format("wave %d: %d of %d solved, %d stray clicks",
+							w, game.solved(), perWave, game.strayClicks()));
+				//the geometry the effector calibrated, not the layout's
+				BoardGeometry calibrated = BoardGeometry.load(profiles.resolve(
+						String.format("%dx%d-%dx%d-%d.properties", WIDTH, HEIGHT, side, side, colors)));
+				Solver solver = new Solver();
+				//after the wave, the store holds the solutions the effector used
+				Function<Puzzle, Optional<Solution>> solve = store != null ? p -> store.solve(p, solver::solve) : solver::solve;
+				checkClicks(w, expectedClicks(calibrated, puzzles.subList(w * perWave, (w + 1) * perWave), solve), input.clicks());
+				System.out.format("wave %d: %d puzzles in %d ms (%d ms/puzzle)%n", w, perWave, millis, millis / perWave);
+			}
+			if (store != null)
+				System.out.println(store);
+		} finally {
+			if (store != null)
+				store.close();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(profiles)) {
+				for (Path p : stream)
+					Files.delete(p);
+			}
+			Files.delete(profiles);
+		}
+		System.out.print(metrics);
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.image.BufferedImage;
+
+/**
+ * Captures frames from the screen with a {@link Robot}.
+ */
+public final class RobotFrameSource implements FrameSource {
+	private final Robot robot;
+	private final Rectangle window;
+	/**
+	 * Creates a frame source capturing the given window.
+	 * @param robot the robot
+	 * @param window the window's client area, in screen coordinates
+	 */
+	public RobotFrameSource(Robot robot, Rectangle window) {
+		this.robot = checkNotNull(robot);
+		this.window = new Rectangle(window);
+	}
+
+	@Override
+	public Rectangle bounds() {
+		return new Rectangle(0, 0, window.width, window.height);
+	}
+
+	@Override
+	public BufferedImage capture(Rectangle region) {
+		return robot.createScreenCapture(new Rectangle(window.x + region.x, window.y + region.y, region.width, region.height));
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.event.InputEvent;
+
+/**
+ * Clicks on the screen with a {@link Robot}.  The robot's auto-delay is
+ * turned off; pacing is up to the caller (see {@link ClickScheduler}).
+ */
+public final class RobotInputSink implements InputSink {
+	private final Robot robot;
+	private final Rectangle window;
+	/**
+	 * Creates an input sink clicking in the given window.
+	 * @param robot the robot
+	 * @param window the window's client area, in screen coordinates
+	 */
+	public RobotInputSink(Robot robot, Rectangle window) {
+		this.robot = checkNotNull(robot);
+		this.window = new Rectangle(window);
+		robot.setAutoDelay(0);
+	}
+
+	@Override
+	public void click(int x, int y) {
+		robot.mouseMove(window.x + x, window.y + y);
+		robot.mousePress(InputEvent.BUTTON1_DOWN_MASK);
+		robot.mouseRelease(InputEvent.BUTTON1_DOWN_MASK);
+	}
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A headless model of Strata's puzzle screen, acting as both the frames and
+ * the input of an {@link Effector} so the whole capture-classify-solve-click
+ * loop can run without a game window.
+ *
+ * The model draws each puzzle of a wave as a diamond of cells in the given
+ * geometry, with a color bar whose selected color is drawn darker.  Clicks
+ * take effect after an input latency.  Clicking a color selects it.  Clicking
+ * a ribbon selector lays that ribbon in the selected color over all ribbons
+ * laid before.  Once every ribbon is laid and they show the puzzle, the
+ * board flashes for the animation duration and the next button appears;
+ * clicking it plays another animation and shows the next puzzle.  The
+ * ribbon selectors are only drawn (as small markers) once laid, so an
+ * unplayed board can be calibrated.
+ *
+ * SimulatedStrata is thread-safe.
+ */
+public final class SimulatedStrata implements FrameSource, InputSink {
+	/**
+	 * The time between frames of an animation.
+	 */
+	private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+	private static final int NEXT_BUTTON_COLOR = 0x404040, MARKER_RADIUS = 3;
+	private final BoardGeometry geometry;
+	private final int[] palette;
+	private final int background, width, height;
+	private final Iterator<Puzzle> puzzles;
+	private final long latencyNanos, animationNanos;
+	private final Ticker ticker;
+	/**
+	 * Clicks not yet in effect, as {due time, x, y}, in due order.
+	 */
+	private final List<long[]> pendingClicks = new ArrayList<>();
+	private Puzzle puzzle;
+	private int selectedColor;
+	/**
+	 * The color of each laid ribbon (rows, then columns), or -1, and the
+	 * order each was laid in.
+	 */
+	private byte[] ribbonColors;
+	private int[] laidAt;
+	private int laid;
+	private boolean showNextButton;
+	/**
+	 * When the current animation ends, and what happens then, or null.
+	 */
+	private long animationEnd;
+	private Runnable afterAnimation;
+	private int solved, strayClicks;
+	/**
+	 * The last rendered frame, and the state it showed: the model version,
+	 * or the animation frame during an animation.
+	 */
+	private BufferedImage frame;
+	private int version;
+	private long frameKey = Long.MIN_VALUE;
+	/**
+	 * Creates a simulated game.
+	 * @param geometry where to draw the board; its side length must match
+	 * the puzzles'
+	 * @param palette the puzzles' colors, as 0xRRGGBB, one per color selector
+	 * @param background the background color, as 0xRRGGBB
+	 * @param width the frame width
+	 * @param height the frame height
+	 * @param wave the puzzles to show, in order
+	 * @param latency the delay before a click takes effect
+	 * @param animation the duration of the end-of-puzzle and next-puzzle
+	 * animations
+	 * @param unit the unit of latency and animation
+	 */
+	public SimulatedStrata(BoardGeometry geometry, int[] palette, int background, int width, int height,
+			List<Puzzle> wave, long latency, long animation, TimeUnit unit) {
+		this(geometry, palette, background, width, height, wave, latency, animation, unit, Ticker.systemTicker());
+	}
+
+	SimulatedStrata(BoardGeometry geometry, int[] palette, int background, int width, int height,
+			List<Puzzle> wave, long latency, long animation, TimeUnit unit, Ticker ticker) {
+		checkArgument(palette.length == geometry.colors(), "%s colors for %s selectors", palette.length, geometry.colors());
+		checkArgument(!wave.isEmpty(), "no puzzles");
+		for (Puzzle p : wave) {
+			checkArgument(p.rows() == geometry.sideLength() && p.cols() == geometry.sideLength(),
+					"%sx%s puzzle on %sx%s board", p.rows(), p.cols(), geometry.sideLength(), geometry.sideLength());
+			for (int row = 0; row < p.rows(); ++row)
+				for (int col = 0; col < p.cols(); ++col)
+					checkArgument(p.color(row, col) < palette.length, "color %s not in %s-color palette", p.color(row, col), palette.length);
+		}
+		checkArgument(latency >= 0 && animation >= 0, "bad times: %s, %s", latency, animation);
+		this.geometry = checkNotNull(geometry);
+		this.palette = palette.clone();
+		this.background = background;
+		this.width = width;
+		this.height = height;
+		this.puzzles = ImmutableList.copyOf(wave).iterator();
+		this.latencyNanos = unit.toNanos(latency);
+		this.animationNanos = unit.toNanos(animation);
+		this.ticker = checkNotNull(ticker);
+		nextPuzzle();
+	}
+
+	/**
+	 * Returns the number of puzzles solved so far.
+	 * @return the number of puzzles solved
+	 */
+	public synchronized int solved() {
+		advance();
+		return solved;
+	}
+
+	/**
+	 * Returns the number of clicks that hit nothing, or hit a ribbon already
+	 * laid or a button not shown.
+	 * @return the number of stray clicks
+	 */
+	public synchronized int strayClicks() {
+		advance();
+		return strayClicks;
+	}
+
+	/**
+	 * Returns true once the last puzzle has been solved and left.
+	 * @return true if the wave is over
+	 */
+	public synchronized boolean isFinished() {
+		advance();
+		return puzzle == null;
+	}
+
+	@Override
+	public Rectangle bounds() {
+		return new Rectangle(0, 0, width, height);
+	}
+
+	@Override
+	public synchronized BufferedImage capture(Rectangle region) {
+		advance();
+		long now = ticker.read();
+		long key = afterAnimation != null ? -1 - (animationEnd - now) / FRAME_NANOS : version;
+		if (key != frameKey) {
+			frame = render(afterAnimation != null ? (int)((animationEnd - now) / FRAME_NANOS) : -1);
+			frameKey = key;
+		}
+		return frame.getSubimage(region.x, region.y, region.width, region.height);
+	}
+
+	@Override
+	public synchronized void click(int x, int y) {
+		pendingClicks.add(new long[]{ticker.read() + latencyNanos, x, y});
+		advance();
+	}
+
+	/**
+	 * Applies the clicks and animations that are due.
+	 */
+	private void advance() {
+		long now = ticker.read();
+		while (true) {
+			long clickDue = pendingClicks.isEmpty() ? Long.MAX_VALUE : pendingClicks.get(0)[0];
+			long animationDue = afterAnimation == null ? Long.MAX_VALUE : animationEnd;
+			if (Math.min(clickDue, animationDue) - now > 0) return;
+			if (animationDue - clickDue <= 0) {
+				Runnable r = afterAnimation;
+				afterAnimation = null;
+				r.run();
+			} else {
+				long[] click = pendingClicks.remove(0);
+				apply((int)click[1], (int)click[2], click[0]);
+			}
+			++version;
+		}
+	}
+
+	private void apply(int x, int y, long when) {
+		if (puzzle == null || afterAnimation != null) {
+			++strayClicks;
+			return;
+		}
+		int[] next = geometry.nextButton();
+		if (showNextButton) {
+			if (Math.abs(x - next[0]) <= 20 && Math.abs(y - next[1]) <= 10)
+				animate(when, this::nextPuzzle);
+			else
+				++strayClicks;
+			return;
+		}
+		for (int i = 0; i < palette.length; ++i)
+			if (near(x, y, geometry.colorSelector(i), selectorRadius())) {
+				selectedColor = i;
+				return;
+			}
+		int n = geometry.sideLength(), step = (int)geometry.step();
+		for (int i = 0; i < n; ++i) {
+			int ribbon = near(x, y, geometry.rowSelector(i), step) ? i
+					: near(x, y, geometry.colSelector(i), step) ? n + i : -1;
+			if (ribbon == -1) continue;
+			if (ribbonColors[ribbon] != -1) {
+				++strayClicks;
+				return;
+			}
+			ribbonColors[ribbon] = (byte)selectedColor;
+			laidAt[ribbon] = laid++;
+			if (isSolved()) {
+				++solved;
+				animate(when, () -> showNextButton = true);
+			}
+			return;
+		}
+		++strayClicks;
+	}
+
+	/**
+	 * Returns true if the point is within the given distance (horizontally
+	 * and vertically) of the target.
+	 */
+	private static boolean near(int x, int y, int[] target, int distance) {
+		return Math.abs(x - target[0]) <= distance / 2 && Math.abs(y - target[1]) <= distance / 2;
+	}
+
+	/**
+	 * Returns true if every ribbon is laid and every constrained cell shows
+	 * its color.
+	 */
+	private boolean isSolved() {
+		if (laid < ribbonColors.length) return false;
+		int n = geometry.sideLength();
+		for (int row = 0; row < n; ++row)
+			for (int col = 0; col < n; ++col) {
+				byte want = puzzle.color(row, col);
+				if (want == -1) continue;
+				if (ribbonColors[laidAt[row] > laidAt[n + col] ? row : n + col] != want)
+					return false;
+			}
+		return true;
+	}
+
+	private void animate(long start, Runnable then) {
+		animationEnd = start + animationNanos;
+		afterAnimation = then;
+	}
+
+	private void nextPuzzle() {
+		puzzle = puzzles.hasNext() ? puzzles.next() : null;
+		showNextButton = false;
+		selectedColor = 0;
+		ribbonColors = new byte[2 * geometry.sideLength()];
+		Arrays.fill(ribbonColors, (byte)-1);
+		laidAt = new int[ribbonColors.length];
+		laid = 0;
+	}
+
+	private int selectorRadius() {
+		int spacing = geometry.colorSelector(1)[0] - geometry.colorSelector(0)[0];
+		return Math.min(20, spacing * 3 / 10);
+	}
+
+	/**
+	 * Draws the current state, with the board flashing if animationFrame
+	 * isn't -1.
+	 */
+	private BufferedImage render(int animationFrame) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(new Color(background));
+		g.fillRect(0, 0, width, height);
+		int n = geometry.sideLength();
+		//each cell is a diamond reaching a step from its center
+		int step = (int)Math.round(geometry.step());
+		if (puzzle != null)
+			for (int row = 0; row < n; ++row)
+				for (int col = 0; col < n; ++col) {
+					byte c = puzzle.color(row, col);
+					if (c == -1) continue;
+					int rgb = palette[c];
+					if (animationFrame >= 0 && (animationFrame & 1) == 0)
+						rgb = blend(rgb, 0xFFFFFF);
+					g.setColor(new Color(rgb));
+					int[] xy = geometry.cell(row, col);
+					g.fillPolygon(new int[]{xy[0] - step, xy[0], xy[0] + step, xy[0]},
+							new int[]{xy[1], xy[1] - step, xy[1], xy[1] + step}, 4);
+				}
+		for (int i = 0; i < ribbonColors.length; ++i) {
+			if (ribbonColors[i] == -1) continue;
+			int[] xy = i < n ? geometry.rowSelector(i) : geometry.colSelector(i - n);
+			g.setColor(new Color(palette[ribbonColors[i]]));
+			g.fillRect(xy[0] - MARKER_RADIUS, xy[1] - MARKER_RADIUS, 2 * MARKER_RADIUS + 1, 2 * MARKER_RADIUS + 1);
+		}
+		int r = selectorRadius();
+		for (int i = 0; i < palette.length; ++i) {
+			int[] xy = geometry.colorSelector(i);
+			g.setColor(new Color(i == selectedColor ? blend(palette[i], 0) : palette[i]));
+			g.fillRect(xy[0] - r, xy[1] - r, 2 * r + 1, 2 * r + 1);
+		}
+		if (showNextButton) {
+			int[] xy = geometry.nextButton();
+			g.setColor(new Color(NEXT_BUTTON_COLOR));
+			g.fillRect(xy[0] - 20, xy[1] - 10, 41, 21);
+		}
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 * Returns the color halfway between the given colors.
+	 */
+	private static int blend(int a, int b) {
+		return ((a >>> 1) & 0x7F7F7F) + ((b >>> 1) & 0x7F7F7F);
+	}
+}
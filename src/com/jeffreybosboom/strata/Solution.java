@@ -18,9 +18,8 @@
 
 package com.jeffreybosboom.strata;
 
-import static com.google.common.base.Preconditions.checkArgument;
-import com.google.common.primitives.Bytes;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -32,26 +31,37 @@ import java.util.stream.IntStream;
  */
 public final class Solution {
 	/**
-	 * The ribbon order, bottom-to-top. If bit 7 is clear, the lower bits are a
-	 * row number; if bit 7 is set, the lower bits are a column number.
+	 * Set in {@link #order} entries for column ribbons.
 	 */
-	private final byte[] order;
+	static final int COL_FLAG = 1 << 31;
+	/**
+	 * The ribbon order, bottom-to-top. If bit 31 is clear, the lower bits are a
+	 * row number; if bit 31 is set, the lower bits are a column number.
+	 */
+	private final int[] order;
 	/**
 	 * The color assignments, in the same order as {@link #order}.
 	 */
 	private final byte[] colors;
-	private Solution(byte[] order, byte[] colors) {
-		checkArgument(Bytes.asList(order).stream().distinct().count() == order.length, "contains duplicates: %s", Arrays.toString(order));
+	/**
+	 * Creates a Solution from the given arrays, which are not copied.  Ribbon
+	 * indices must already be in the coordinates of the puzzle being solved.
+	 * Duplicates are only checked under assertions; use a
+	 * {@link SolutionBuilder} to validate as ribbons are added.
+	 */
+	Solution(int[] order, byte[] colors) {
+		assert order.length == colors.length;
+		assert ribbons(order).cardinality() == order.length : "contains duplicates: " + Arrays.toString(order);
 		this.order = order;
 		this.colors = colors;
 	}
 
 	public static Solution empty() {
-		return new Solution(new byte[0], new byte[0]);
+		return new Solution(new int[0], new byte[0]);
 	}
 
-	public Solution appendRow(byte row, byte color) {
-		byte[] newOrder = Arrays.copyOf(order, size()+1);
+	public Solution appendRow(int row, byte color) {
+		int[] newOrder = Arrays.copyOf(order, size()+1);
 		byte[] newColors = Arrays.copyOf(colors, size()+1);
 		for (int i = 0; i < size(); ++i)
 			if (isRow(i) && ribbonIndex(i) >= row)
@@ -61,13 +71,13 @@ public final class Solution {
 		return new Solution(newOrder, newColors);
 	}
 
-	public Solution appendCol(byte col, byte color) {
-		byte[] newOrder = Arrays.copyOf(order, size()+1);
+	public Solution appendCol(int col, byte color) {
+		int[] newOrder = Arrays.copyOf(order, size()+1);
 		byte[] newColors = Arrays.copyOf(colors, size()+1);
 		for (int i = 0; i < size(); ++i)
 			if (isCol(i) && ribbonIndex(i) >= col)
 				++newOrder[i];
-		newOrder[size()] = (byte)(col | 128);
+		newOrder[size()] = col | COL_FLAG;
 		newColors[size()] = color;
 		return new Solution(newOrder, newColors);
 	}
@@ -80,18 +90,19 @@ public final class Solution {
 	 * @return a complete solution to the given puzzle
 	 */
 	public Solution complete(Puzzle p) {
-		byte[] newOrder = new byte[p.rows()+p.cols()];
+		int[] newOrder = new int[p.rows()+p.cols()];
 		byte[] newColors = new byte[p.rows()+p.cols()];
 		int idx = 0;
+		BitSet present = ribbons(order);
 		//add anything missing
-		for (byte row = 0; row < p.rows(); ++row)
-			if (!Bytes.contains(order, row)) {
+		for (int row = 0; row < p.rows(); ++row)
+			if (!present.get(bit(row))) {
 				newOrder[idx] = row;
 				newColors[idx++] = 0;
 			}
-		for (byte col = 0; col < p.cols(); ++col)
-			if (!Bytes.contains(order, (byte)(col | 128))) {
-				newOrder[idx] = (byte)(col | 128);
+		for (int col = 0; col < p.cols(); ++col)
+			if (!present.get(bit(col | COL_FLAG))) {
+				newOrder[idx] = col | COL_FLAG;
 				newColors[idx++] = 0;
 			}
 		//replay our contents in order
@@ -100,12 +111,30 @@ public final class Solution {
 		return new Solution(newOrder, newColors);
 	}
 
+	/**
+	 * Returns the set of ribbons in the given order, as {@link #bit(int)}s.
+	 */
+	private static BitSet ribbons(int[] order) {
+		BitSet set = new BitSet();
+		for (int ribbon : order)
+			set.set(bit(ribbon));
+		return set;
+	}
+
+	/**
+	 * Returns a dense nonnegative number for the given order entry: rows are
+	 * even and columns are odd.
+	 */
+	private static int bit(int ribbon) {
+		return ((ribbon & ~COL_FLAG) << 1) | (ribbon >>> 31);
+	}
+
 	public int size() {
 		return order.length;
 	}
 
-	public byte ribbonIndex(int pos) {
-		return (byte)(order[pos] & ~128);
+	public int ribbonIndex(int pos) {
+		return order[pos] & ~COL_FLAG;
 	}
 
 	public boolean isRow(int pos) {
@@ -113,7 +142,7 @@ public final class Solution {
 	}
 
 	public boolean isCol(int pos) {
-		return (order[pos] & 128) != 0;
+		return (order[pos] & COL_FLAG) != 0;
 	}
 
 	public byte color(int pos) {
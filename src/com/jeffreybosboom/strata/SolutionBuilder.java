@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkState;
+import java.util.Arrays;
+
+/**
+ * Builds a Solution one ribbon at a time, in the original coordinates of a
+ * puzzle of known size, into buffers allocated once.  Building copies the
+ * buffers into the Solution; the builder can then be cleared and reused.
+ *
+ * A validating builder checks each ribbon is in range and not already added
+ * using a bitset, so validation costs constant time per ribbon and can be left
+ * on in production.  A non-validating builder only checks under assertions.
+ */
+public final class SolutionBuilder {
+	private final int rows, cols;
+	private final boolean validating;
+	private final int[] order;
+	private final byte[] colors;
+	/**
+	 * The ribbons added so far (rows, then columns), if validating.
+	 */
+	private final long[] added;
+	private int size;
+	public SolutionBuilder(int rows, int cols) {
+		this(rows, cols, true);
+	}
+
+	public SolutionBuilder(int rows, int cols, boolean validating) {
+		checkArgument(rows >= 0 && cols >= 0, "bad size: %s x %s", rows, cols);
+		this.rows = rows;
+		this.cols = cols;
+		this.validating = validating;
+		this.order = new int[rows + cols];
+		this.colors = new byte[rows + cols];
+		this.added = validating ? new long[(rows + cols + 63) >>> 6] : null;
+	}
+
+	public static SolutionBuilder forPuzzle(Puzzle puzzle) {
+		return new SolutionBuilder(puzzle.rows(), puzzle.cols());
+	}
+
+	/**
+	 * Adds the given row, with the given color, above all ribbons added so
+	 * far.
+	 * @param row the row, in original coordinates
+	 * @param color the row's color
+	 * @return this
+	 */
+	public SolutionBuilder addRow(int row, byte color) {
+		if (validating) {
+			checkElementIndex(row, rows);
+			markAdded(row);
+		} else
+			assert row >= 0 && row < rows : row;
+		return add(row, color);
+	}
+
+	/**
+	 * Adds the given column, with the given color, above all ribbons added so
+	 * far.
+	 * @param col the column, in original coordinates
+	 * @param color the column's color
+	 * @return this
+	 */
+	public SolutionBuilder addCol(int col, byte color) {
+		if (validating) {
+			checkElementIndex(col, cols);
+			markAdded(rows + col);
+		} else
+			assert col >= 0 && col < cols : col;
+		return add(col | Solution.COL_FLAG, color);
+	}
+
+	private void markAdded(int ribbon) {
+		long bit = 1L << ribbon;
+		checkArgument((added[ribbon >>> 6] & bit) == 0, "%s %s already added",
+				ribbon < rows ? "row" : "col", ribbon < rows ? ribbon : ribbon - rows);
+		added[ribbon >>> 6] |= bit;
+	}
+
+	private SolutionBuilder add(int ribbon, byte color) {
+		//each ribbon can only be added once, so this can only fail if not validating
+		checkState(size < order.length, "full");
+		order[size] = ribbon;
+		colors[size++] = color;
+		return this;
+	}
+
+	/**
+	 * Reverses the order of the ribbons added so far, for callers that find
+	 * ribbons top-to-bottom.
+	 * @return this
+	 */
+	public SolutionBuilder reverse() {
+		for (int i = 0, j = size - 1; i < j; ++i, --j) {
+			int o = order[i];
+			order[i] = order[j];
+			order[j] = o;
+			byte c = colors[i];
+			colors[i] = colors[j];
+			colors[j] = c;
+		}
+		return this;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a Solution containing the ribbons added so far.
+	 * @return a Solution
+	 */
+	public Solution build() {
+		return new Solution(Arrays.copyOf(order, size), Arrays.copyOf(colors, size));
+	}
+
+	/**
+	 * Removes all ribbons from this builder, so it can be reused.
+	 * @return this
+	 */
+	public SolutionBuilder clear() {
+		size = 0;
+		if (validating)
+			Arrays.fill(added, 0);
+		return this;
+	}
+}
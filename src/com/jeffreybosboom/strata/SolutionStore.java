@@ -0,0 +1,281 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * A persistent store of solutions (and known-unsolvable puzzles), keyed by
+ * {@linkplain CanonicalPuzzle canonical form} so boards equal up to row and
+ * column permutation and color relabeling share an entry.  Looking up a
+ * stored board costs canonicalization plus one hash table probe sequence.
+ *
+ * The store is a single memory-mapped file: a header, then
+ * {@link Corpus}-format records of canonical puzzles and their results,
+ * appended in insertion order, and an open-addressing table of slots
+ * pointing at them.  Opening a store only maps it, so startup doesn't depend
+ * on its size; pages are read as lookups touch them.  When the table is
+ * three-quarters full, a table twice the size is appended and the slots
+ * (which hold their records' hashes) are moved into it, so the file is never
+ * rewritten; the old tables' space is not reused.  Stores are limited to
+ * 2GB.
+ * <pre>
+ * int    magic "STRS"
+ * short  version
+ * short  reserved
+ * int    capacity (number of slots, a power of two)
+ * int    size (number of records)
+ * int    data end offset
+ * int    table offset
+ * (padding to 32 bytes)
+ * then records and tables, where a table is
+ * long[capacity] slots: hash (high 32 bits) and record offset (low 32 bits),
+ *                or 0 if empty
+ * </pre>
+ *
+ * SolutionStore is thread-safe, but a store file must only be open in one
+ * process at a time.
+ */
+public final class SolutionStore implements AutoCloseable {
+	private static final int MAGIC = 0x53545253; //"STRS"
+	private static final short VERSION = 1;
+	private static final int HEADER_BYTES = 32;
+	private static final int CAPACITY_OFFSET = 8, SIZE_OFFSET = 12, DATA_END_OFFSET = 16, TABLE_OFFSET = 20;
+	private static final int DEFAULT_CAPACITY = 1 << 12;
+	/**
+	 * The most slots in a table: a 1GB table, so 8 * capacity fits in an int.
+	 */
+	private static final int MAX_CAPACITY = 1 << 27;
+	private final Path path;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private int capacity, size, dataEnd, table;
+	private SolutionStore(Path path) {
+		this.path = path;
+	}
+
+	/**
+	 * Opens the store at the given path, creating it if it doesn't exist.
+	 * @param path the store file
+	 * @return the store
+	 * @throws IOException if the store can't be opened or isn't a store
+	 */
+	public static SolutionStore open(Path path) throws IOException {
+		SolutionStore store = new SolutionStore(path);
+		if (!Files.exists(path))
+			create(path, DEFAULT_CAPACITY);
+		store.map();
+		return store;
+	}
+
+	/**
+	 * Writes an empty store with the given capacity.
+	 */
+	private static void create(Path path, int capacity) throws IOException {
+		checkArgument(Integer.bitCount(capacity) == 1 && capacity <= MAX_CAPACITY, "bad capacity: %s", capacity);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(MAGIC).putShort(VERSION).putShort((short)0)
+				.putInt(capacity).putInt(0).putInt(HEADER_BYTES + 8 * capacity).putInt(HEADER_BYTES);
+		header.flip();
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			ch.write(header);
+			ch.write(ByteBuffer.allocate(8 * capacity), HEADER_BYTES);
+		}
+	}
+
+	private void map() throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long length = channel.size();
+		if (length < HEADER_BYTES || length > Integer.MAX_VALUE)
+			throw new IOException(path + " is not a solution store");
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+		if (buffer.getInt(0) != MAGIC)
+			throw new IOException(path + " is not a solution store");
+		if (buffer.getShort(4) != VERSION)
+			throw new IOException(path + " has unsupported version " + buffer.getShort(4));
+		capacity = buffer.getInt(CAPACITY_OFFSET);
+		size = buffer.getInt(SIZE_OFFSET);
+		dataEnd = buffer.getInt(DATA_END_OFFSET);
+		table = buffer.getInt(TABLE_OFFSET);
+		if (Integer.bitCount(capacity) != 1 || capacity > MAX_CAPACITY || dataEnd > length
+				|| table < HEADER_BYTES || (long)table + 8L * capacity > dataEnd)
+			throw new IOException(path + " is corrupt");
+	}
+
+	/**
+	 * Returns the stored result for the given puzzle if present, otherwise
+	 * solves it with the given solver and stores the result.
+	 * @param puzzle the puzzle
+	 * @param solver solves puzzles not in the store
+	 * @return the puzzle's solution, or empty if it has none
+	 */
+	public Optional<Solution> solve(Puzzle puzzle, Function<Puzzle, Optional<Solution>> solver) {
+		CanonicalPuzzle canonical = CanonicalPuzzle.of(puzzle);
+		Corpus.Record record = lookup(canonical);
+		Optional<Solution> solution;
+		if (record != null)
+			solution = record.solution();
+		else {
+			solution = solver.apply(canonical.puzzle());
+			insert(canonical, solution);
+		}
+		return solution.map(canonical::toOriginal);
+	}
+
+	/**
+	 * Returns true if the given puzzle (or an equivalent one) is in the store.
+	 * @param puzzle the puzzle
+	 * @return true if the puzzle is in the store
+	 */
+	public boolean contains(Puzzle puzzle) {
+		return lookup(CanonicalPuzzle.of(puzzle)) != null;
+	}
+
+	private synchronized Corpus.Record lookup(CanonicalPuzzle canonical) {
+		int hash = (int)canonical.hash();
+		for (int slot = hash & (capacity - 1); ; slot = (slot + 1) & (capacity - 1)) {
+			long entry = buffer.getLong(table + 8 * slot);
+			if (entry == 0) return null;
+			if ((int)(entry >>> 32) != hash) continue;
+			Corpus.Record record = readRecord((int)entry);
+			if (record.puzzle().equals(canonical.puzzle()))
+				return record;
+		}
+	}
+
+	private Corpus.Record readRecord(int offset) {
+		ByteBuffer b = buffer.duplicate();
+		b.position(offset + 4);
+		return Corpus.readRecord(b);
+	}
+
+	private synchronized void insert(CanonicalPuzzle canonical, Optional<Solution> solution) {
+		//another thread may have solved it meanwhile
+		if (lookup(canonical) != null) return;
+		if (4 * (size + 1) > 3 * capacity)
+			grow();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			Corpus.writeRecord(new DataOutputStream(bytes), canonical.puzzle(), true, solution);
+		} catch (IOException ex) {
+			throw new AssertionError(ex); //ByteArrayOutputStream doesn't throw
+		}
+		byte[] record = bytes.toByteArray();
+		ensureLength((long)dataEnd + record.length);
+		int offset = dataEnd;
+		ByteBuffer b = buffer.duplicate();
+		b.position(offset);
+		b.put(record);
+		dataEnd += record.length;
+		putSlot((int)canonical.hash(), offset);
+		++size;
+		buffer.putInt(SIZE_OFFSET, size);
+		buffer.putInt(DATA_END_OFFSET, dataEnd);
+	}
+
+	private void putSlot(int hash, int offset) {
+		int slot = hash & (capacity - 1);
+		while (buffer.getLong(table + 8 * slot) != 0)
+			slot = (slot + 1) & (capacity - 1);
+		buffer.putLong(table + 8 * slot, ((long)hash << 32) | (offset & 0xFFFFFFFFL));
+	}
+
+	/**
+	 * Extends and remaps the file, if needed, so it is at least the given
+	 * length, doubling to amortize remapping.
+	 *
+	 * The old mapping is left to the garbage collector rather than unmapped:
+	 * Java has no supported way to unmap a buffer, and unmapping one still in
+	 * use would crash the VM.  Until it is collected it holds address space,
+	 * not memory, as every mapping shares the file's pages; since lengths
+	 * double, the old mappings together are smaller than the current one.
+	 */
+	private void ensureLength(long length) {
+		if (length <= buffer.capacity()) return;
+		checkState(length <= Integer.MAX_VALUE, "store full: %s", path);
+		long newLength = Math.min(Integer.MAX_VALUE, Math.max(length, 2L * buffer.capacity()));
+		try {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newLength);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * Appends a table with twice the capacity and moves the slots into it.
+	 */
+	private void grow() {
+		int oldTable = table, oldCapacity = capacity;
+		checkState(oldCapacity < MAX_CAPACITY, "store full: %s", path);
+		//extend first, so a full store is left consistent
+		ensureLength((long)dataEnd + 16L * oldCapacity);
+		capacity = 2 * oldCapacity;
+		table = dataEnd;
+		for (int slot = 0; slot < capacity; ++slot)
+			buffer.putLong(table + 8 * slot, 0);
+		dataEnd += 8 * capacity;
+		for (int slot = 0; slot < oldCapacity; ++slot) {
+			long entry = buffer.getLong(oldTable + 8 * slot);
+			if (entry != 0)
+				putSlot((int)(entry >>> 32), (int)entry);
+		}
+		buffer.putInt(CAPACITY_OFFSET, capacity);
+		buffer.putInt(TABLE_OFFSET, table);
+		buffer.putInt(DATA_END_OFFSET, dataEnd);
+	}
+
+	/**
+	 * Returns the number of puzzles in the store.
+	 * @return the number of puzzles in the store
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Writes the store's changes to disk.
+	 */
+	public synchronized void flush() {
+		buffer.force();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		buffer.force();
+		channel.close();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%s: %d puzzles, %d bytes", path, size, dataEnd);
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Checks that a Solution reproduces a Puzzle by replaying its ribbons onto the
+ * board.  Each cell shows the color of whichever of its row and column is
+ * painted later, so the verifier walks the solution top-to-bottom, keeping
+ * bitsets of the rows and columns already painted above: a ribbon is visible
+ * exactly at the crossings not yet painted, and those cells must be its color
+ * or unconstrained.  The puzzle is indexed as one bitset per ribbon per color,
+ * so each ribbon is checked a word at a time, in O(side/64).
+ *
+ * A SolutionVerifier reuses its buffers between puzzles, so isn't thread-safe;
+ * use one per thread.
+ */
+public final class SolutionVerifier {
+	/**
+	 * A cell that a solution paints the wrong color.
+	 */
+	public static final class Mismatch {
+		private final int row, col;
+		private final byte expected, actual;
+		private final int position;
+		private Mismatch(int row, int col, byte expected, byte actual, int position) {
+			this.row = row;
+			this.col = col;
+			this.expected = expected;
+			this.actual = actual;
+			this.position = position;
+		}
+
+		public int row() {
+			return row;
+		}
+
+		public int col() {
+			return col;
+		}
+
+		/**
+		 * Returns the color the puzzle requires at this cell.
+		 * @return the required color
+		 */
+		public byte expected() {
+			return expected;
+		}
+
+		/**
+		 * Returns the color the solution paints at this cell, or -1 if it
+		 * leaves the cell unpainted.
+		 * @return the painted color, or -1
+		 */
+		public byte actual() {
+			return actual;
+		}
+
+		/**
+		 * Returns the position in the solution of the ribbon visible at this
+		 * cell, or -1 if it is unpainted.
+		 * @return the position of the visible ribbon, or -1
+		 */
+		public int position() {
+			return position;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("(%d, %d): expected %d, painted %d%s", row, col, expected, actual,
+					position >= 0 ? " by solution position " + position : "");
+		}
+	}
+
+	private int rows, cols, rowWords, colWords, colors;
+	/**
+	 * For each color (plus one, so unconstrained cells are index 0) and row,
+	 * the bitset of columns holding that color, then likewise for each color
+	 * and column.
+	 */
+	private long[] rowBits = new long[0], colBits = new long[0];
+	/**
+	 * The rows and columns painted so far, walking down from the top.
+	 */
+	private long[] paintedRows = new long[0], paintedCols = new long[0];
+	private byte[] cells;
+
+	/**
+	 * Returns the first mismatching cell found when replaying the given
+	 * solution onto the given puzzle, walking down from the topmost ribbon,
+	 * or an empty Optional if the solution reproduces the puzzle.  Cells no
+	 * ribbon paints must be unconstrained.
+	 * @param puzzle the puzzle
+	 * @param solution a solution to check
+	 * @return the first mismatching cell, if any
+	 * @throws IllegalArgumentException if the solution refers to ribbons the
+	 * puzzle doesn't have
+	 */
+	public Optional<Mismatch> verify(Puzzle puzzle, Solution solution) {
+		index(puzzle);
+		Arrays.fill(paintedRows, 0, rowWords, 0);
+		Arrays.fill(paintedCols, 0, colWords, 0);
+		for (int i = solution.size() - 1; i >= 0; --i) {
+			int ribbon = solution.ribbonIndex(i);
+			boolean isRow = solution.isRow(i);
+			checkArgument(ribbon < (isRow ? rows : cols), "%s %s out of range", isRow ? "row" : "col", ribbon);
+			long[] painted = isRow ? paintedRows : paintedCols;
+			long bit = 1L << ribbon;
+			//a repeated ribbon is hidden by its later repaint
+			if ((painted[ribbon >>> 6] & bit) != 0) continue;
+			int cross = isRow
+					? check(rowBits, rows, colWords, cols, paintedCols, ribbon, solution.color(i))
+					: check(colBits, cols, rowWords, rows, paintedRows, ribbon, solution.color(i));
+			if (cross >= 0) {
+				int row = isRow ? ribbon : cross, col = isRow ? cross : ribbon;
+				return Optional.of(new Mismatch(row, col, cells[row * cols + col], solution.color(i), i));
+			}
+			painted[ribbon >>> 6] |= bit;
+		}
+
+		//cells under no ribbon at all must be unconstrained
+		for (int row = 0; row < rows; ++row) {
+			if ((paintedRows[row >>> 6] & (1L << row)) != 0) continue;
+			int base = row * colWords;
+			for (int w = 0; w < colWords; ++w) {
+				long bad = ~paintedCols[w] & ~rowBits[base + w] & mask(w, cols);
+				if (bad != 0) {
+					int col = (w << 6) + Long.numberOfTrailingZeros(bad);
+					return Optional.of(new Mismatch(row, col, cells[row * cols + col], (byte)-1, -1));
+				}
+			}
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * Returns true if the given solution reproduces the given puzzle.
+	 * @param puzzle the puzzle
+	 * @param solution a solution to check
+	 * @return true iff the solution is correct
+	 */
+	public boolean isCorrect(Puzzle puzzle, Solution solution) {
+		return !verify(puzzle, solution).isPresent();
+	}
+
+	/**
+	 * Returns the index of the first crossing line not yet painted where the
+	 * given line isn't the given color or unconstrained, or -1 if there are
+	 * none.
+	 */
+	private int check(long[] bits, int lines, int words, int crossLines, long[] paintedCross, int line, byte color) {
+		int free = line * words;
+		int colored = color >= 0 && color < colors ? ((color + 1) * lines + line) * words : -1;
+		for (int w = 0; w < words; ++w) {
+			long ok = bits[free + w] | (colored >= 0 ? bits[colored + w] : 0);
+			long bad = ~paintedCross[w] & ~ok & mask(w, crossLines);
+			if (bad != 0)
+				return (w << 6) + Long.numberOfTrailingZeros(bad);
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the mask of valid bits in the given word of a bitset of the
+	 * given length.
+	 */
+	private static long mask(int word, int length) {
+		int valid = length - (word << 6);
+		return valid >= 64 ? -1L : (1L << valid) - 1;
+	}
+
+	/**
+	 * Builds the per-color bitsets for the given puzzle, growing the buffers
+	 * if necessary.
+	 */
+	private void index(Puzzle puzzle) {
+		rows = puzzle.rows();
+		cols = puzzle.cols();
+		rowWords = Solver.words(rows);
+		colWords = Solver.words(cols);
+		cells = puzzle.toRowMajor();
+		colors = 0;
+		for (byte c : cells)
+			colors = Math.max(colors, c + 1);
+
+		int rowSize = (colors + 1) * rows * colWords, colSize = (colors + 1) * cols * rowWords;
+		if (rowBits.length < rowSize) rowBits = new long[rowSize];
+		else Arrays.fill(rowBits, 0, rowSize, 0);
+		if (colBits.length < colSize) colBits = new long[colSize];
+		else Arrays.fill(colBits, 0, colSize, 0);
+		if (paintedRows.length < rowWords) paintedRows = new long[rowWords];
+		if (paintedCols.length < colWords) paintedCols = new long[colWords];
+
+		for (int row = 0, i = 0; row < rows; ++row)
+			for (int col = 0; col < cols; ++col, ++i) {
+				int k = cells[i] + 1;
+				rowBits[(k * rows + row) * colWords + (col >>> 6)] |= 1L << col;
+				colBits[(k * cols + col) * rowWords + (row >>> 6)] |= 1L << row;
+			}
+	}
+
+	/**
+	 * Paints the given solution onto an empty board of the given size,
+	 * returning the result as a Puzzle whose unpainted cells are
+	 * unconstrained.
+	 * @param solution the solution to replay
+	 * @param rows the number of rows
+	 * @param cols the number of columns
+	 * @return the painted board
+	 */
+	public static Puzzle replay(Solution solution, int rows, int cols) {
+		byte[] board = new byte[rows * cols];
+		Arrays.fill(board, (byte)-1);
+		for (int i = 0; i < solution.size(); ++i) {
+			int ribbon = solution.ribbonIndex(i);
+			byte color = solution.color(i);
+			if (solution.isRow(i)) {
+				checkArgument(ribbon < rows, "row %s out of range", ribbon);
+				Arrays.fill(board, ribbon * cols, (ribbon + 1) * cols, color);
+			} else {
+				checkArgument(ribbon < cols, "col %s out of range", ribbon);
+				for (int cell = ribbon; cell < board.length; cell += cols)
+					board[cell] = color;
+			}
+		}
+		return Puzzle.fromRowMajor(board, rows, cols);
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Solves puzzles given on the command line or standard input and prints their
+ * solutions, one per line.  Meant to be run as a short-lived process by other
+ * tools, so it loads as few classes as possible: no AWT, windowlib or Guava
+ * collections, and no lambdas or streams on the solve path.  The {@code cds}
+ * Ant target builds a class-data-sharing archive for it, which cuts startup
+ * further.
+ *
+ * Usage: {@code Solve [puzzle...]}.  Each puzzle is written as its rows
+ * separated by '/', with a digit for each colored cell and a space or '.' for
+ * each unconstrained cell, e.g. {@code "01/.1"}.  Without arguments, puzzles
+ * are read from standard input, one row per line, separated by blank lines.
+ */
+public final class Solve {
+	private Solve() {}
+
+	public static void main(String[] args) throws IOException {
+		List<String> puzzles = new ArrayList<>();
+		if (args.length > 0) {
+			for (String a : args)
+				puzzles.add(a.replace('/', '\n'));
+		} else {
+			BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder();
+			for (String line; (line = in.readLine()) != null;) {
+				if (line.trim().isEmpty()) {
+					if (sb.length() > 0) puzzles.add(sb.toString());
+					sb.setLength(0);
+				} else
+					sb.append(sb.length() > 0 ? "\n" : "").append(line);
+			}
+			if (sb.length() > 0) puzzles.add(sb.toString());
+		}
+
+		Solver solver = new Solver();
+		PrintStream out = System.out;
+		StringBuilder sb = new StringBuilder();
+		for (String p : puzzles) {
+			Optional<Solution> solution = solver.solve(parse(p));
+			sb.setLength(0);
+			if (solution.isPresent())
+				format(solution.get(), sb);
+			else
+				sb.append("no solution");
+			out.println(sb);
+		}
+	}
+
+	/**
+	 * Parses a puzzle's rows, separated by newlines.
+	 */
+	private static Puzzle parse(String str) {
+		String[] rows = str.split("\n");
+		int cols = rows[0].length();
+		byte[] cells = new byte[rows.length * cols];
+		for (int row = 0; row < rows.length; ++row) {
+			if (rows[row].length() != cols)
+				throw new IllegalArgumentException("board not rectangular: " + str);
+			for (int col = 0; col < cols; ++col) {
+				char c = rows[row].charAt(col);
+				if (c == ' ' || c == '.')
+					cells[row * cols + col] = -1;
+				else if (Character.isDigit(c))
+					cells[row * cols + col] = (byte)Character.digit(c, 10);
+				else
+					throw new IllegalArgumentException("bad cell '" + c + "': " + str);
+			}
+		}
+		return Puzzle.fromRowMajor(cells, rows.length, cols);
+	}
+
+	/**
+	 * Formats a solution as {@link Solution#toString()} does, without streams.
+	 */
+	private static void format(Solution solution, StringBuilder sb) {
+		for (int i = 0; i < solution.size(); ++i) {
+			if (i > 0) sb.append(", ");
+			sb.append(solution.isRow(i) ? "row " : "col ").append(solution.ribbonIndex(i))
+					.append(" = ").append(solution.color(i));
+		}
+	}
+}
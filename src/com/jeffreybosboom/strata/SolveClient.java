@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A connection to a {@link SolveServer}.  Requests are pipelined: any number
+ * may be outstanding, and a background thread completes them as responses
+ * arrive.
+ *
+ * SolveClient is thread-safe.
+ */
+public final class SolveClient implements AutoCloseable {
+	/**
+	 * A server's answer to one puzzle.
+	 */
+	public static final class Response {
+		private final Optional<Solution> solution;
+		private final long solveNanos;
+		private Response(Optional<Solution> solution, long solveNanos) {
+			this.solution = solution;
+			this.solveNanos = solveNanos;
+		}
+
+		public Optional<Solution> solution() {
+			return solution;
+		}
+
+		/**
+		 * Returns the time the server spent solving this puzzle, not counting
+		 * queueing or transport.
+		 * @return the solve time, in nanoseconds
+		 */
+		public long solveNanos() {
+			return solveNanos;
+		}
+
+		@Override
+		public String toString() {
+			return solution.map(Solution::toString).orElse("no solution") + " in " + solveNanos + " ns";
+		}
+	}
+
+	private static final class Pending {
+		private final int rows, cols;
+		private final CompletableFuture<Response> future = new CompletableFuture<>();
+		private Pending(int rows, int cols) {
+			this.rows = rows;
+			this.cols = cols;
+		}
+	}
+
+	private final Socket socket;
+	private final DataInputStream in;
+	/**
+	 * Guarded by itself.
+	 */
+	private final DataOutputStream out;
+	private final ConcurrentMap<Integer, Pending> pending = new ConcurrentHashMap<>();
+	private int nextId;
+	private volatile IOException failure;
+	private SolveClient(Socket socket) throws IOException {
+		this.socket = socket;
+		socket.setTcpNoDelay(true);
+		this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		Thread reader = new Thread(this::read, "stratabot-client-" + socket.getLocalPort());
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Connects to a server on the given loopback port.
+	 * @param port the server's port
+	 * @return a client
+	 * @throws IOException if the connection fails
+	 */
+	public static SolveClient connect(int port) throws IOException {
+		return new SolveClient(new Socket(InetAddress.getLoopbackAddress(), port));
+	}
+
+	/**
+	 * Sends the given puzzle to the server.  The returned future completes
+	 * exceptionally with an {@link IOException} if the connection fails, an
+	 * IllegalArgumentException if the puzzle is too large to send, or an
+	 * IllegalStateException if the server failed to solve the puzzle.
+	 * @param puzzle the puzzle to solve
+	 * @return a future response
+	 */
+	public CompletableFuture<Response> submit(Puzzle puzzle) {
+		Pending p = new Pending(puzzle.rows(), puzzle.cols());
+		//Encode first, so a puzzle the format can't hold fails before we
+		//write its id and desynchronize the connection.
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		try {
+			Corpus.writeRecord(new DataOutputStream(record), puzzle, false, Optional.empty());
+		} catch (IOException | RuntimeException ex) {
+			p.future.completeExceptionally(ex);
+			return p.future;
+		}
+		synchronized (out) {
+			int id = nextId++;
+			pending.put(id, p);
+			try {
+				if (failure != null) throw failure;
+				out.writeInt(id);
+				record.writeTo(out);
+				out.flush();
+			} catch (IOException | RuntimeException ex) {
+				pending.remove(id);
+				p.future.completeExceptionally(ex);
+			}
+		}
+		return p.future;
+	}
+
+	/**
+	 * Solves the given puzzle on the server, waiting for the response.
+	 * @param puzzle the puzzle to solve
+	 * @return the puzzle's solution, if any
+	 * @throws UncheckedIOException if the connection fails
+	 */
+	public Optional<Solution> solve(Puzzle puzzle) {
+		try {
+			return submit(puzzle).join().solution();
+		} catch (CompletionException ex) {
+			if (ex.getCause() instanceof IOException)
+				throw new UncheckedIOException((IOException)ex.getCause());
+			throw ex;
+		}
+	}
+
+	private void read() {
+		try {
+			byte[] buffer = new byte[256];
+			while (true) {
+				int id = in.readInt();
+				long nanos = in.readLong();
+				int length = in.readInt();
+				Pending p = pending.remove(id);
+				if (p == null)
+					throw new IOException("response to unknown request " + id);
+				if (length == SolveServer.FAILED) {
+					p.future.completeExceptionally(new IllegalStateException("server failed to solve request " + id));
+					continue;
+				}
+				Optional<Solution> solution = Optional.empty();
+				if (length >= 0) {
+					if (buffer.length < length)
+						buffer = new byte[Math.max(length, 2 * buffer.length)];
+					in.readFully(buffer, 0, length);
+					solution = Optional.of(Corpus.readSolution(ByteBuffer.wrap(buffer, 0, length), p.rows, p.cols));
+				}
+				p.future.complete(new Response(solution, nanos));
+			}
+		} catch (IOException ex) {
+			fail(ex);
+		} catch (IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException ex) {
+			fail(new IOException("malformed response", ex));
+		}
+	}
+
+	private void fail(IOException ex) {
+		synchronized (out) {
+			failure = ex;
+		}
+		for (Integer id : pending.keySet()) {
+			Pending p = pending.remove(id);
+			if (p != null)
+				p.future.completeExceptionally(ex);
+		}
+		try {
+			socket.close();
+		} catch (IOException ex2) {
+			//we're done with it anyway
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+}
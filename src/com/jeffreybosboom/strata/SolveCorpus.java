@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+import com.google.common.collect.Iterators;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Solves every puzzle in one or more corpora, writing each puzzle and its
+ * result to an output corpus in input order.  Inputs are memory-mapped and
+ * solved on a {@link BatchSolver}, so memory use doesn't grow with the input.
+ *
+ * Usage: {@code SolveCorpus [-t threads] [-v] input... output}, where
+ * {@code -v} checks each solution with a {@link SolutionVerifier}.
+ */
+public final class SolveCorpus {
+	private SolveCorpus() {}
+
+	public static void main(String[] args) throws IOException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean verify = false;
+		int first = 0;
+		for (; first < args.length; ++first)
+			if (args[first].equals("-t") && first + 1 < args.length)
+				threads = Integer.parseInt(args[++first]);
+			else if (args[first].equals("-v"))
+				verify = true;
+			else
+				break;
+		if (args.length - first < 2) {
+			System.err.println("usage: SolveCorpus [-t threads] [-v] input... output");
+			System.exit(2);
+		}
+		List<Path> inputs = new ArrayList<>();
+		for (String a : Arrays.asList(args).subList(first, args.length - 1))
+			inputs.add(Paths.get(a));
+		Path output = Paths.get(args[args.length - 1]);
+
+		long start = System.nanoTime();
+		long[] solved = {0};
+		List<Corpus.Reader> readers = new ArrayList<>();
+		try (Corpus.Writer writer = Corpus.Writer.create(output);
+				BatchSolver solver = new BatchSolver(threads, 4 * threads, 64, verify ? SolveCorpus::verifyingSolver : () -> new Solver()::solve)) {
+			for (Path p : inputs)
+				readers.add(Corpus.Reader.open(p));
+			Iterator<Puzzle> puzzles = Iterators.transform(Iterators.concat(readers.iterator()), Corpus.Record::puzzle);
+			solver.solveOrdered(puzzles, r -> {
+				try {
+					writer.write(r.puzzle(), r.solution());
+				} catch (IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+				if (r.solution().isPresent()) ++solved[0];
+			});
+			long millis = (System.nanoTime() - start) / 1_000_000;
+			System.err.format("%d puzzles, %d solved, in %d ms%n", writer.records(), solved[0], millis);
+		} finally {
+			for (Corpus.Reader r : readers)
+				r.close();
+		}
+	}
+
+	/**
+	 * Returns a solver that checks each solution with a
+	 * {@link SolutionVerifier}, failing the run on the first wrong one.
+	 */
+	private static Function<Puzzle, Optional<Solution>> verifyingSolver() {
+		Solver solver = new Solver();
+		SolutionVerifier verifier = new SolutionVerifier();
+		return puzzle -> {
+			Optional<Solution> solution = solver.solve(puzzle);
+			solution.flatMap(s -> verifier.verify(puzzle, s)).ifPresent(m -> {
+				throw new IllegalStateException("wrong solution for " + puzzle + ": " + m);
+			});
+			return solution;
+		};
+	}
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A resident solve server on a loopback socket, so tools can solve puzzles
+ * with warm solvers instead of starting a JVM per puzzle.  Requests from all
+ * connections go into one queue; each worker drains a batch of requests at a
+ * time, solves them, then writes and flushes each connection's responses once
+ * per batch.  Responses may arrive out of order and are matched to requests
+ * by id.  The queue holds two batches per worker; while it is full,
+ * connections stop reading, so TCP flow control pushes back on clients that
+ * send requests faster than they are solved.  Use {@link SolveClient} to talk
+ * to the server.
+ *
+ * The wire format, with all integers big-endian, is:
+ * <pre>
+ * request:  int id, then a {@link Corpus} record (with no result)
+ * response: int id, long solve time in nanoseconds, int length (-1 if the
+ *           puzzle is unsolvable, -2 if solving it failed), then a solution
+ *           as in a Corpus record
+ * </pre>
+ * A malformed request closes its connection.  A request whose solve throws
+ * gets a failure response; other requests are unaffected.
+ */
+public final class SolveServer implements AutoCloseable {
+	private static final int DEFAULT_MAX_BATCH = 64;
+	/**
+	 * The largest request accepted, in bytes (enough for a 4096x4096 board
+	 * of 15+ colors).
+	 */
+	private static final int MAX_REQUEST_BYTES = 1 << 24;
+	/**
+	 * The response length for unsolvable puzzles and failed solves.
+	 */
+	static final int UNSOLVABLE = -1, FAILED = -2;
+	private final ServerSocket serverSocket;
+	private final ExecutorService workers, connections;
+	private final BlockingQueue<Request> queue;
+	private final Set<Connection> open = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	private final int maxBatch;
+	private volatile boolean closed;
+	/**
+	 * Creates a server on the given loopback port with a worker on each
+	 * available processor.
+	 * @param port the port to listen on, or 0 for any free port
+	 * @throws IOException if the port can't be bound
+	 */
+	public SolveServer(int port) throws IOException {
+		this(port, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_BATCH);
+	}
+
+	/**
+	 * Creates a server on the given loopback port.
+	 * @param port the port to listen on, or 0 for any free port
+	 * @param threads the number of worker threads
+	 * @param maxBatch the most requests a worker takes from the queue at once
+	 * @throws IOException if the port can't be bound
+	 */
+	public SolveServer(int port, int threads, int maxBatch) throws IOException {
+		checkArgument(threads > 0, "threads: %s", threads);
+		checkArgument(maxBatch > 0, "maxBatch: %s", maxBatch);
+		this.maxBatch = maxBatch;
+		this.queue = new LinkedBlockingQueue<>((int)Math.min(Integer.MAX_VALUE, 2L * threads * maxBatch));
+		this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		this.workers = Executors.newFixedThreadPool(threads, daemon("stratabot-server-%d"));
+		this.connections = Executors.newCachedThreadPool(daemon("stratabot-connection-%d"));
+		for (int i = 0; i < threads; ++i)
+			workers.execute(this::work);
+		connections.execute(this::accept);
+	}
+
+	private static ThreadFactory daemon(String nameFormat) {
+		return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+	}
+
+	/**
+	 * Returns the port this server is listening on.
+	 * @return this server's port
+	 */
+	public int port() {
+		return serverSocket.getLocalPort();
+	}
+
+	private static final class Request {
+		private final Connection connection;
+		private final int id;
+		private final Puzzle puzzle;
+		/**
+		 * The solution, or null if solving failed.
+		 */
+		private Optional<Solution> solution;
+		private long nanos;
+		private Request(Connection connection, int id, Puzzle puzzle) {
+			this.connection = connection;
+			this.id = id;
+			this.puzzle = puzzle;
+		}
+	}
+
+	private final class Connection {
+		private final Socket socket;
+		private final DataInputStream in;
+		/**
+		 * Written by workers; guarded by itself.
+		 */
+		private final DataOutputStream out;
+		private Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			socket.setTcpNoDelay(true);
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		private void read() {
+			try {
+				byte[] buffer = new byte[256];
+				while (!closed) {
+					int id;
+					try {
+						id = in.readInt();
+					} catch (EOFException ex) {
+						return;
+					}
+					int length = in.readInt();
+					if (length < 0 || length > MAX_REQUEST_BYTES)
+						return;
+					if (buffer.length < length)
+						buffer = new byte[Math.max(length, 2 * buffer.length)];
+					in.readFully(buffer, 0, length);
+					ByteBuffer record = ByteBuffer.wrap(buffer, 0, length);
+					Puzzle puzzle = Corpus.readRecord(record).puzzle();
+					if (record.hasRemaining())
+						return;
+					//blocks while the workers are behind
+					queue.put(new Request(this, id, puzzle));
+				}
+			} catch (IOException | IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException ex) {
+				//drop the connection
+			} catch (InterruptedException ex) {
+				//shutting down
+			} finally {
+				close();
+			}
+		}
+
+		private void close() {
+			open.remove(this);
+			try {
+				socket.close();
+			} catch (IOException ex) {
+				//we're done with it anyway
+			}
+		}
+	}
+
+	private void accept() {
+		try {
+			while (!closed) {
+				Connection c = new Connection(serverSocket.accept());
+				open.add(c);
+				connections.execute(c::read);
+			}
+		} catch (SocketException ex) {
+			//closed
+		} catch (IOException ex) {
+			if (!closed) throw new RuntimeException(ex);
+		}
+	}
+
+	private void work() {
+		Solver solver = new Solver();
+		List<Request> batch = new ArrayList<>(maxBatch);
+		Set<Connection> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+		try {
+			while (!closed) {
+				batch.add(queue.take());
+				queue.drainTo(batch, maxBatch - 1);
+				for (Request r : batch) {
+					long start = System.nanoTime();
+					try {
+						r.solution = solver.solve(r.puzzle);
+					} catch (RuntimeException ex) {
+						//fail this request alone; the worker carries on
+						r.solution = null;
+					}
+					r.nanos = System.nanoTime() - start;
+				}
+				for (Request r : batch)
+					if (respond(r))
+						dirty.add(r.connection);
+				for (Connection c : dirty)
+					try {
+						synchronized (c.out) {
+							c.out.flush();
+						}
+					} catch (IOException ex) {
+						c.close();
+					}
+				batch.clear();
+				dirty.clear();
+			}
+		} catch (InterruptedException ex) {
+			//shutting down
+		}
+	}
+
+	/**
+	 * Writes (but doesn't flush) the response to the given request, returning
+	 * false if the connection failed.
+	 */
+	private boolean respond(Request r) {
+		DataOutputStream out = r.connection.out;
+		try {
+			synchronized (out) {
+				out.writeInt(r.id);
+				out.writeLong(r.nanos);
+				if (r.solution == null)
+					out.writeInt(FAILED);
+				else if (r.solution.isPresent()) {
+					out.writeInt(Corpus.solutionBytes(r.solution.get()));
+					Corpus.writeSolution(out, r.solution.get());
+				} else
+					out.writeInt(UNSOLVABLE);
+			}
+			return true;
+		} catch (IOException ex) {
+			r.connection.close();
+			return false;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		serverSocket.close();
+		for (Connection c : open)
+			c.close();
+		workers.shutdownNow();
+		connections.shutdownNow();
+	}
+
+	/**
+	 * Runs a server until killed.
+	 * Usage: {@code SolveServer [-t threads] [port]}
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors(), port = 0;
+		int i = 0;
+		if (args.length >= 2 && args[0].equals("-t")) {
+			threads = Integer.parseInt(args[1]);
+			i = 2;
+		}
+		if (i < args.length)
+			port = Integer.parseInt(args[i]);
+		SolveServer server = new SolveServer(port, threads, DEFAULT_MAX_BATCH);
+		System.err.format("listening on port %d%n", server.port());
+		Thread.currentThread().join();
+	}
+}
@@ -18,66 +18,425 @@
 
 package com.jeffreybosboom.strata;
 
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
- * Solves Puzzles.  Solver is not thread-safe.  Solvers may be reused, but doing
- * so will retain memory.
+ * Solves Puzzles.  Solver is not thread-safe, but may be reused.
  *
- * It turns out that the solver will not backtrack iff the puzzle has no
- * solution, so the cache is not necessary. (TODO)
+ * Removing a uniform ribbon only removes cells from the ribbons crossing it,
+ * so a uniform ribbon stays uniform: peeling is confluent.  Thus we peel
+ * greedily and never backtrack, and the first dead end proves the puzzle
+ * unsolvable.  Each ribbon's color histogram over the remaining crossing
+ * ribbons is updated as ribbons are removed, and a ribbon is queued as a
+ * candidate when its histogram drops to one color, so a solve costs time
+ * linear in the number of cells.  Before building histograms for a whole
+ * puzzle, we check for an initially uniform ribbon with a
+ * {@link UniformityKernel}, rejecting most unsolvable boards without counting
+ * every cell.  Solves aren't parallelized: as peeling is
+ * confluent there are no alternatives to explore, and each peel depends on
+ * the last.
  * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
  * @since 8/30/2014
  */
 public final class Solver {
+	/**
+	 * Returned by {@link #peel()} when peeling reaches a dead end.
+	 */
+	private static final int UNSOLVABLE = -1;
+	private final UniformityKernel kernel = UniformityKernel.get();
 	public Solver() {}
 
-	private final Map<Puzzle, Optional<Solution>> cache = new HashMap<>();
+	/**
+	 * One direction of ribbons.  Columns are handled as the rows of the
+	 * transposed puzzle, so rows and columns share one loop.
+	 */
+	private static final class Axis {
+		/**
+		 * This axis's lines, each as long as the crossing axis, end-to-end.
+		 */
+		final byte[] lines;
+		final int lineLength;
+		/**
+		 * The ranges of words in {@link #state} holding this axis's and the
+		 * crossing axis's remaining-lines bitsets.
+		 */
+		final int from, to, crossFrom, crossTo;
+		/**
+		 * The ribbon numbers of this axis's and the crossing axis's line 0.
+		 */
+		final int ribbonBase, crossBase;
+		int remaining;
+		Axis(byte[] lines, int lineLength, int from, int to, int crossFrom, int crossTo, int ribbonBase, int crossBase) {
+			this.lines = lines;
+			this.lineLength = lineLength;
+			this.from = from;
+			this.to = to;
+			this.crossFrom = crossFrom;
+			this.crossTo = crossTo;
+			this.ribbonBase = ribbonBase;
+			this.crossBase = crossBase;
+		}
+	}
+
+	private Puzzle puzzle;
+	private int rows, cols, numColors;
+	private Axis rowAxis, colAxis;
+	/**
+	 * The remaining-rows bitset followed by the remaining-columns bitset.
+	 */
+	private long[] state;
+	/**
+	 * Per-ribbon color histograms over the remaining crossing ribbons, indexed
+	 * by ribbon * numColors + color, and the number of nonzero entries in each
+	 * ribbon's histogram.
+	 */
+	private int[] counts, distinct;
+	/**
+	 * The candidate queue: remaining ribbons that were uniform when queued,
+	 * which stay uniform.  Each ribbon is queued at most once per solve.
+	 */
+	private int[] candidates;
+	private int head, tail;
+	/**
+	 * The moves made so far, top first: a ribbon number (rows, then columns)
+	 * in the low 24 bits and the ribbon's color in the high byte.
+	 */
+	private int[] moves;
+	private SolutionBuilder builder;
+	private int puzzlesExamined, backtracks, candidateScans;
+	private Metrics metrics = Metrics.NONE;
+
 	public Optional<Solution> solve(Puzzle puzzle) {
 		if (puzzle.isEmpty()) return Optional.of(Solution.empty());
-		return cache.computeIfAbsent(puzzle, this::solve_uncached);
-	}
-
-	private Optional<Solution> solve_uncached(Puzzle puzzle) {
-		for (byte row = 0; row < puzzle.rows(); ++row) {
-			final byte row_ = row;
-			Set<Byte> colors = IntStream.range(0, puzzle.cols())
-					.mapToObj(col -> puzzle.color(row_, col))
-					.filter(b -> b != -1)
-					.collect(Collectors.toSet());
-			if (colors.size() > 1) continue;
-			byte color = colors.isEmpty() ? 0 : colors.iterator().next();
-			Optional<Solution> solution = solve(puzzle.withoutRow(row));
-			if (solution.isPresent())
-				return Optional.of(solution.get().appendRow(row, color));
+		if (puzzle != this.puzzle && !puzzle.equals(this.puzzle))
+			reset(puzzle);
+		return solve(fullState(), true);
+	}
+
+	/**
+	 * Solves the subproblem of the given puzzle containing only the rows and
+	 * columns in the given remaining-rows and remaining-columns bitsets (laid
+	 * out as in {@link #state}; see {@link #words(int)}).  The solution is in
+	 * the puzzle's coordinates and contains only the remaining ribbons.
+	 * @param puzzle a nonempty puzzle
+	 * @param remaining the remaining rows and columns
+	 * @return a solution to the subproblem, or an empty Optional
+	 */
+	Optional<Solution> solve(Puzzle puzzle, long[] remaining) {
+		if (puzzle != this.puzzle && !puzzle.equals(this.puzzle))
+			reset(puzzle);
+		return solve(remaining, false);
+	}
+
+	/**
+	 * Solves the given puzzle after the given cells are edited, reusing the
+	 * given solution to the unedited puzzle.  Peeling the solution top-down,
+	 * each ribbon crossing an edited cell is recolored if its remaining cells
+	 * are still uniform; at the first ribbon that isn't, the rest of the
+	 * solution is discarded and only the subproblem left after the kept peels
+	 * is searched.  (Any solvable subproblem reached by peeling extends to a
+	 * solution, so the kept peels never need to be revisited.)  Small edits
+	 * near the bottom of the solution thus cost time proportional to the
+	 * solution's length, not a full search.
+	 * @param puzzle the unedited puzzle
+	 * @param solution a solution to the unedited puzzle
+	 * @param edits the cell edits; if a cell is edited more than once, the
+	 * last edit wins
+	 * @return a solution to the edited puzzle, or an empty Optional
+	 */
+	public Optional<Solution> resolve(Puzzle puzzle, Solution solution, Collection<CellEdit> edits) {
+		int rows = puzzle.rows(), cols = puzzle.cols();
+		Map<Integer, CellEdit> edited = new HashMap<>();
+		Map<Integer, List<CellEdit>> byRow = new HashMap<>(), byCol = new HashMap<>();
+		for (CellEdit e : edits) {
+			checkElementIndex(e.row(), rows);
+			checkElementIndex(e.col(), cols);
+			edited.put(e.row() * cols + e.col(), e);
+		}
+		if (edited.isEmpty()) return Optional.of(solution);
+		for (CellEdit e : edited.values()) {
+			byRow.computeIfAbsent(e.row(), k -> new ArrayList<>()).add(e);
+			byCol.computeIfAbsent(e.col(), k -> new ArrayList<>()).add(e);
+		}
+
+		boolean[] rowPeeled = new boolean[rows], colPeeled = new boolean[cols];
+		byte[] colors = new byte[solution.size()];
+		int pos;
+		for (pos = solution.size() - 1; pos >= 0; --pos) {
+			boolean isRow = solution.isRow(pos);
+			int line = solution.ribbonIndex(pos);
+			checkElementIndex(line, isRow ? rows : cols);
+			byte color = solution.color(pos);
+			List<CellEdit> touched = (isRow ? byRow : byCol).get(line);
+			if (touched != null && touched.stream().anyMatch(e -> !(isRow ? colPeeled[e.col()] : rowPeeled[e.row()]))) {
+				int uniform = uniformColor(puzzle, edited, isRow, line, rowPeeled, colPeeled);
+				if (uniform == -2) break;
+				if (uniform != -1) color = (byte)uniform;
+			}
+			colors[pos] = color;
+			(isRow ? rowPeeled : colPeeled)[line] = true;
+		}
+
+		//Edits not covered by any peel must be unconstrained.
+		boolean covered = pos < 0 && edited.values().stream()
+				.allMatch(e -> e.color() == -1 || rowPeeled[e.row()] || colPeeled[e.col()]);
+		SolutionBuilder builder = new SolutionBuilder(rows, cols);
+		if (!covered) {
+			long[] remaining = new long[words(rows) + words(cols)];
+			for (int row = 0; row < rows; ++row)
+				if (!rowPeeled[row])
+					remaining[row >>> 6] |= 1L << row;
+			for (int col = 0; col < cols; ++col)
+				if (!colPeeled[col])
+					remaining[words(rows) + (col >>> 6)] |= 1L << col;
+			Optional<Solution> below = solve(puzzle.edit(edited.values()), remaining);
+			if (!below.isPresent()) return Optional.empty();
+			for (int i = 0; i < below.get().size(); ++i)
+				if (below.get().isRow(i))
+					builder.addRow(below.get().ribbonIndex(i), below.get().color(i));
+				else
+					builder.addCol(below.get().ribbonIndex(i), below.get().color(i));
+		}
+		for (int i = pos + 1; i < solution.size(); ++i)
+			if (solution.isRow(i))
+				builder.addRow(solution.ribbonIndex(i), colors[i]);
+			else
+				builder.addCol(solution.ribbonIndex(i), colors[i]);
+		return Optional.of(builder.build());
+	}
+
+	/**
+	 * Returns the color of the given line of the edited puzzle over the
+	 * unpeeled crossing lines, -1 if it is unconstrained, or -2 if it has
+	 * several colors.
+	 */
+	private static int uniformColor(Puzzle puzzle, Map<Integer, CellEdit> edited, boolean isRow, int line, boolean[] rowPeeled, boolean[] colPeeled) {
+		int color = -1;
+		for (int cross = 0; cross < (isRow ? puzzle.cols() : puzzle.rows()); ++cross) {
+			int row = isRow ? line : cross, col = isRow ? cross : line;
+			if (isRow ? colPeeled[col] : rowPeeled[row]) continue;
+			CellEdit e = edited.get(row * puzzle.cols() + col);
+			byte c = e != null ? e.color() : puzzle.color(row, col);
+			if (c == -1 || c == color) continue;
+			if (color != -1) return -2;
+			color = c;
+		}
+		return color;
+	}
+
+	private Optional<Solution> solve(long[] remaining, boolean whole) {
+		if (metrics == Metrics.NONE)
+			return search(remaining, whole);
+		long start = System.nanoTime();
+		int examined = puzzlesExamined, backtracked = backtracks, scans = candidateScans;
+		try {
+			return search(remaining, whole);
+		} finally {
+			metrics.time(Metrics.Phase.SOLVE, System.nanoTime() - start);
+			metrics.count(Metrics.Counter.STATES_VISITED, puzzlesExamined - examined);
+			metrics.count(Metrics.Counter.BACKTRACKS, backtracks - backtracked);
+			metrics.count(Metrics.Counter.CANDIDATE_SCANS, candidateScans - scans);
+		}
+	}
+
+	/**
+	 * Searches the given subproblem.  If it is the whole puzzle, first checks
+	 * for a uniform line; subproblems can't be checked this way, as a line
+	 * that is mixed in the whole puzzle may be uniform in the subproblem.
+	 */
+	private Optional<Solution> search(long[] remaining, boolean whole) {
+		//Without a uniform ribbon to start from, there's no point building
+		//histograms.  Random large boards mostly fail here, usually within
+		//the first few cells of each line.
+		if (whole && !kernel.anyUniform(rowAxis.lines, rows, cols)
+				&& !kernel.anyUniform(colAxis.lines, cols, rows)) {
+			++puzzlesExamined;
+			++backtracks;
+			return Optional.empty();
+		}
+		fillState(remaining);
+		int depth = peel();
+		if (depth == UNSOLVABLE)
+			return Optional.empty();
+		//Moves are top-to-bottom, but solutions are bottom-to-top.
+		builder.clear();
+		for (int i = depth - 1; i >= 0; --i) {
+			int ribbon = moves[i] & 0xFFFFFF;
+			if (ribbon < rows)
+				builder.addRow(ribbon, (byte)(moves[i] >>> 24));
+			else
+				builder.addCol(ribbon - rows, (byte)(moves[i] >>> 24));
+		}
+		return Optional.of(builder.build());
+	}
+
+	/**
+	 * Sets the metrics this solver reports to after each solve.
+	 * @param metrics the metrics, or {@link Metrics#NONE}
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = checkNotNull(metrics);
+	}
+
+	private void reset(Puzzle puzzle) {
+		this.puzzle = puzzle;
+		this.rows = puzzle.rows();
+		this.cols = puzzle.cols();
+		int rowWords = words(rows), colWords = words(cols);
+		this.state = new long[rowWords + colWords];
+		this.rowAxis = new Axis(puzzle.toRowMajor(), cols, 0, rowWords, rowWords, state.length, 0, rows);
+		this.colAxis = new Axis(puzzle.transpose().toRowMajor(), rows, rowWords, state.length, 0, rowWords, rows, 0);
+		this.numColors = 0;
+		for (byte color : rowAxis.lines)
+			numColors = Math.max(numColors, color + 1);
+		this.counts = new int[(rows + cols) * numColors];
+		this.distinct = new int[rows + cols];
+		this.candidates = new int[rows + cols];
+		this.moves = new int[rows + cols];
+		this.builder = new SolutionBuilder(rows, cols, false);
+	}
+
+	/**
+	 * Returns the number of words in a bitset of the given number of bits.
+	 * @param bits the number of bits
+	 * @return the number of words
+	 */
+	static int words(int bits) {
+		return (bits + 63) >>> 6;
+	}
+
+	private long[] fullState() {
+		long[] full = new long[state.length];
+		for (int row = 0; row < rows; ++row)
+			full[rowAxis.from + (row >>> 6)] |= 1L << row;
+		for (int col = 0; col < cols; ++col)
+			full[colAxis.from + (col >>> 6)] |= 1L << col;
+		return full;
+	}
+
+	/**
+	 * Sets up the state, histograms and candidate queue for the given
+	 * subproblem.
+	 */
+	private void fillState(long[] remaining) {
+		System.arraycopy(remaining, 0, state, 0, state.length);
+		Arrays.fill(counts, 0);
+		Arrays.fill(distinct, 0);
+		rowAxis.remaining = colAxis.remaining = 0;
+		for (int w = rowAxis.from; w < rowAxis.to; ++w)
+			rowAxis.remaining += Long.bitCount(state[w]);
+		for (int w = colAxis.from; w < colAxis.to; ++w)
+			colAxis.remaining += Long.bitCount(state[w]);
+		for (int line = 0; line < rows; ++line)
+			if (isRemaining(line))
+				forEachCrossing(rowAxis, line, 1);
+		for (int line = 0; line < cols; ++line)
+			if (isRemaining(rows + line))
+				forEachCrossing(colAxis, line, 1);
+		head = tail = 0;
+		for (int ribbon = 0; ribbon < rows + cols; ++ribbon)
+			if (distinct[ribbon] <= 1 && isRemaining(ribbon))
+				candidates[tail++] = ribbon;
+	}
+
+	/**
+	 * Peels uniform ribbons until a row or column axis is empty, recording the
+	 * moves in {@link #moves}.  Returns the number of moves, or UNSOLVABLE.
+	 */
+	private int peel() {
+		int depth = 0;
+		while (rowAxis.remaining > 0 && colAxis.remaining > 0) {
+			++puzzlesExamined;
+			int ribbon = nextCandidate();
+			if (ribbon == -1) {
+				++backtracks;
+				return UNSOLVABLE;
+			}
+			moves[depth++] = ribbon | (color(ribbon) << 24);
+			remove(ribbon);
 		}
-		//TODO: implement transposition to remove this duplication
-		for (byte col = 0; col < puzzle.cols(); ++col) {
-			final byte col_ = col;
-			Set<Byte> colors = IntStream.range(0, puzzle.rows())
-					.mapToObj(row -> puzzle.color(row, col_))
-					.filter(b -> b != -1)
-					.collect(Collectors.toSet());
-			if (colors.size() > 1) continue;
-			byte color = colors.isEmpty() ? 0 : colors.iterator().next();
-			Optional<Solution> solution = solve(puzzle.withoutCol(col));
-			if (solution.isPresent())
-				return Optional.of(solution.get().appendCol(col, color));
+		return depth;
+	}
+
+	/**
+	 * Dequeues the next remaining candidate ribbon, or returns -1 if there is
+	 * none.
+	 */
+	private int nextCandidate() {
+		while (head < tail) {
+			int ribbon = candidates[head++];
+			++candidateScans;
+			if (isRemaining(ribbon))
+				return ribbon;
 		}
-		return Optional.empty();
+		return -1;
+	}
+
+	private boolean isRemaining(int ribbon) {
+		Axis a = axis(ribbon);
+		int line = ribbon - a.ribbonBase;
+		return (state[a.from + (line >>> 6)] & (1L << line)) != 0;
+	}
+
+	private Axis axis(int ribbon) {
+		return ribbon < rows ? rowAxis : colAxis;
+	}
+
+	/**
+	 * Returns the color of the given uniform ribbon, or 0 if it is
+	 * unconstrained.
+	 */
+	private int color(int ribbon) {
+		if (distinct[ribbon] != 0)
+			for (int c = 0, base = ribbon * numColors; c < numColors; ++c)
+				if (counts[base + c] != 0)
+					return c;
+		return 0;
+	}
+
+	private void remove(int ribbon) {
+		Axis a = axis(ribbon);
+		int line = ribbon - a.ribbonBase;
+		state[a.from + (line >>> 6)] &= ~(1L << line);
+		--a.remaining;
+		forEachCrossing(a, line, -1);
+	}
+
+	/**
+	 * Adds delta to the histograms of the remaining ribbons crossing the given
+	 * line at the line's cells, queueing ribbons that become uniform.
+	 */
+	private void forEachCrossing(Axis a, int line, int delta) {
+		int base = line * a.lineLength;
+		for (int w = a.crossFrom; w < a.crossTo; ++w)
+			for (long bits = state[w]; bits != 0; bits &= bits - 1) {
+				int cross = ((w - a.crossFrom) << 6) + Long.numberOfTrailingZeros(bits);
+				byte c = a.lines[base + cross];
+				if (c == -1) continue;
+				int ribbon = a.crossBase + cross;
+				int old = counts[ribbon * numColors + c];
+				counts[ribbon * numColors + c] = old + delta;
+				if (old == 0)
+					++distinct[ribbon];
+				else if (old + delta == 0 && --distinct[ribbon] == 1)
+					candidates[tail++] = ribbon;
+			}
 	}
 
 	public int puzzlesExamined() {
-		return cache.size();
+		return puzzlesExamined;
 	}
 
 	public int backtracks() {
-		return (int)cache.values().stream().filter(o -> !o.isPresent()).count();
+		return backtracks;
 	}
 
 	public static void main(String[] args) {
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.jeffreybosboom.strata;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import com.google.common.base.Ticker;
+import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
+import java.awt.Rectangle;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for animations to start or finish by polling small regions of a
+ * {@link FrameSource} and comparing consecutive frames, so callers wait only
+ * as long as the animations actually take instead of a fixed, pessimistic
+ * sleep.  A frame counts as changed if any pixel's channel differs from the
+ * previous poll by more than a tolerance.
+ */
+public final class StabilityDetector {
+	private final FrameSource source;
+	private final Rectangle[] regions;
+	private final long pollNanos;
+	private final int stablePolls, tolerance;
+	private final Ticker ticker;
+	/**
+	 * The pixels of each region at the last poll, and scratch space for the
+	 * current poll.
+	 */
+	private int[][] last, current;
+	private long polls;
+	/**
+	 * Creates a detector.
+	 * @param source the frames to watch
+	 * @param regions the regions to compare
+	 * @param pollInterval the time between polls
+	 * @param unit the unit of pollInterval
+	 * @param stablePolls the number of consecutive unchanged polls meaning
+	 * the screen has settled
+	 * @param tolerance the largest per-channel difference not counted as a
+	 * change
+	 */
+	public StabilityDetector(FrameSource source, List<Rectangle> regions, long pollInterval, TimeUnit unit, int stablePolls, int tolerance) {
+		this(source, regions, pollInterval, unit, stablePolls, tolerance, Ticker.systemTicker());
+	}
+
+	StabilityDetector(FrameSource source, List<Rectangle> regions, long pollInterval, TimeUnit unit, int stablePolls, int tolerance, Ticker ticker) {
+		checkArgument(!regions.isEmpty(), "no regions");
+		checkArgument(pollInterval >= 0, "pollInterval: %s", pollInterval);
+		checkArgument(stablePolls > 0, "stablePolls: %s", stablePolls);
+		checkArgument(tolerance >= 0 && tolerance < 256, "tolerance: %s", tolerance);
+		this.source = checkNotNull(source);
+		this.regions = regions.toArray(new Rectangle[0]);
+		this.pollNanos = unit.toNanos(pollInterval);
+		this.stablePolls = stablePolls;
+		this.tolerance = tolerance;
+		this.ticker = checkNotNull(ticker);
+		this.last = new int[this.regions.length][];
+		this.current = new int[this.regions.length][];
+	}
+
+	/**
+	 * Waits until the regions differ from how they look now.
+	 * @param timeout the longest to wait
+	 * @param unit the unit of timeout
+	 * @return true if the regions changed, false if the timeout expired
+	 */
+	public boolean awaitChange(long timeout, TimeUnit unit) {
+		long deadline = ticker.read() + unit.toNanos(timeout);
+		poll();
+		while (ticker.read() - deadline < 0) {
+			sleepUninterruptibly(pollNanos, TimeUnit.NANOSECONDS);
+			if (poll())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Waits until the regions stop changing for the configured number of
+	 * consecutive polls.
+	 * @param timeout the longest to wait
+	 * @param unit the unit of timeout
+	 * @return true if the regions settled, false if the timeout expired
+	 */
+	public boolean awaitStable(long timeout, TimeUnit unit) {
+		long deadline = ticker.read() + unit.toNanos(timeout);
+		poll();
+		int unchanged = 0;
+		while (ticker.read() - deadline < 0) {
+			sleepUninterruptibly(pollNanos, TimeUnit.NANOSECONDS);
+			unchanged = poll() ? 0 : unchanged + 1;
+			if (unchanged >= stablePolls)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Waits up to the given time for an animation to start, then until the
+	 * screen settles.
+	 * @param startTimeout the longest to wait for the animation to start
+	 * @param settleTimeout the longest to wait for the screen to settle
+	 * @param unit the unit of the timeouts
+	 * @return true if the screen settled, false if the settle timeout expired
+	 */
+	public boolean awaitSettled(long startTimeout, long settleTimeout, TimeUnit unit) {
+		awaitChange(startTimeout, unit);
+		return awaitStable(settleTimeout, unit);
+	}
+
+	/**
+	 * Returns the number of times the regions have been captured.
+	 * @return the number of polls
+	 */
+	public long polls() {
+		return polls;
+	}
+
+	/**
+	 * Captures the regions, returning true if they changed since the last
+	 * poll.
+	 */
+	private boolean poll() {
+		++polls;
+		boolean changed = false;
+		for (int i = 0; i < regions.length; ++i) {
+			current[i] = new CellSampler(source.capture(regions[i])).pixels(current[i]);
+			changed |= last[i] == null || differs(last[i], current[i], regions[i].width * regions[i].height);
+		}
+		int[][] t = last;
+		last = current;
+		current = t;
+		return changed;
+	}
+
+	private boolean differs(int[] a, int[] b, int length) {
+		for (int i = 0; i < length; ++i) {
+			int x = a[i], y = b[i];
+			if (x == y) continue;
+			if (Math.abs((x >>> 16 & 0xFF) - (y >>> 16 & 0xFF)) > tolerance
+					|| Math.abs((x >>> 8 & 0xFF) - (y >>> 8 & 0xFF)) > tolerance
+					|| Math.abs((x & 0xFF) - (y & 0xFF)) > tolerance)
+				return true;
+		}
+		return false;
+	}
+}
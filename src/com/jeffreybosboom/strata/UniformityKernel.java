@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Jeffrey Bosboom.
+ * This file is part of stratabot.
+ *
+ * stratabot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * stratabot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with stratabot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jeffreybosboom.strata;
+
+/**
+ * Tests whole lines of cells for uniformity: whether a line's constrained
+ * cells are all one color.  Lines are contiguous runs of a cell array, so
+ * columns are tested in a transposed copy of the board.
+ *
+ * On JDK 16 and later, if stratabot was built with the vector kernel (see the
+ * compile-vector target) and the JVM was started with
+ * {@code --add-modules jdk.incubator.vector}, {@link #get()} returns a kernel
+ * comparing a full SIMD register of cells at a time; otherwise it returns the
+ * scalar kernel.
+ */
+abstract class UniformityKernel {
+	/**
+	 * Returned by {@link #color(byte[], int, int)} for lines with more than
+	 * one color.
+	 */
+	static final int MIXED = -2;
+	private static final String VECTOR_KERNEL = "com.jeffreybosboom.strata.VectorUniformityKernel";
+	private static final UniformityKernel SCALAR = new Scalar();
+	private static final UniformityKernel BEST = load();
+
+	/**
+	 * Returns the color of the constrained cells in
+	 * {@code lines[from, from+length)}, -1 if there are none, or
+	 * {@link #MIXED}.
+	 * @param lines the cells
+	 * @param from the index of the line's first cell
+	 * @param length the length of the line
+	 * @return the line's color, -1 or MIXED
+	 */
+	abstract int color(byte[] lines, int from, int length);
+
+	/**
+	 * Returns true iff any of the given end-to-end lines is uniform.
+	 * @param lines the lines, end-to-end
+	 * @param count the number of lines
+	 * @param length the length of each line
+	 * @return true iff any line is uniform
+	 */
+	boolean anyUniform(byte[] lines, int count, int length) {
+		for (int line = 0; line < count; ++line)
+			if (color(lines, line * length, length) != MIXED)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns the fastest kernel available in this JVM.
+	 * @return the fastest kernel
+	 */
+	static UniformityKernel get() {
+		return BEST;
+	}
+
+	static UniformityKernel scalar() {
+		return SCALAR;
+	}
+
+	private static UniformityKernel load() {
+		try {
+			UniformityKernel kernel = Class.forName(VECTOR_KERNEL).asSubclass(UniformityKernel.class).getDeclaredConstructor().newInstance();
+			//fails here if the vector module isn't present
+			kernel.color(new byte[]{-1, 0}, 0, 2);
+			return kernel;
+		} catch (ReflectiveOperationException | LinkageError ex) {
+			return SCALAR;
+		}
+	}
+
+	private static final class Scalar extends UniformityKernel {
+		@Override
+		int color(byte[] lines, int from, int length) {
+			int end = from + length, i = from;
+			while (i < end && lines[i] == -1)
+				++i;
+			if (i == end) return -1;
+			byte color = lines[i];
+			for (; i < end; ++i) {
+				byte c = lines[i];
+				if (c != color & c != -1)
+					return MIXED;
+			}
+			return color;
+		}
+	}
+}